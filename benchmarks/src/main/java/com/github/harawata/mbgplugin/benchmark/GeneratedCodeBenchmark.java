@@ -0,0 +1,129 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.harawata.mbgplugin.CaseInsensitveLikePlugin;
+import com.github.harawata.mbgplugin.EqualsHashCodePlugin;
+import com.github.harawata.mbgplugin.ForUpdatePlugin;
+import com.github.harawata.mbgplugin.InsensitveAddCriterionPlugin;
+import com.github.harawata.mbgplugin.LeftValueCriteriaPlugin;
+import com.github.harawata.mbgplugin.ToStringPlugin;
+
+/**
+ * Measures the methods generated by {@link EqualsHashCodePlugin} and {@link ToStringPlugin}
+ * and the construction of the generated example class.<br>
+ * The table has a primary key column and <code>columns</code> other columns.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeneratedCodeBenchmark
+{
+	@Param({
+		"10", "80"
+	})
+	public int columns;
+
+	@Param({
+		"false", "true"
+	})
+	public boolean cacheHashCode;
+
+	private GeneratedModel model;
+
+	private Object record;
+
+	private Object equalRecord;
+
+	private Supplier<Object> exampleFactory;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		Map<String, String> equalsHashCodeProperties = new LinkedHashMap<String, String>();
+		if (cacheHashCode)
+			equalsHashCodeProperties.put("cacheHashCode", GeneratedModel.TABLE_NAME);
+
+		Map<Class<?>, Map<String, String>> plugins = new LinkedHashMap<Class<?>, Map<String, String>>();
+		plugins.put(EqualsHashCodePlugin.class, equalsHashCodeProperties);
+		plugins.put(ToStringPlugin.class, null);
+		plugins.put(ForUpdatePlugin.class, null);
+		plugins.put(LeftValueCriteriaPlugin.class, null);
+		plugins.put(CaseInsensitveLikePlugin.class, null);
+		plugins.put(InsensitveAddCriterionPlugin.class, null);
+
+		model = new GeneratedModel(columns, plugins);
+		record = model.newRecord();
+		equalRecord = model.newRecord();
+		exampleFactory = model.getExampleFactory();
+
+		if (!record.equals(equalRecord) || record.hashCode() != equalRecord.hashCode())
+			throw new IllegalStateException("Generated equals()/hashCode() are inconsistent.");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception
+	{
+		model.delete();
+	}
+
+	@Benchmark
+	public boolean equalsEqualRecord()
+	{
+		return record.equals(equalRecord);
+	}
+
+	@Benchmark
+	public int hashCodeRecord()
+	{
+		return record.hashCode();
+	}
+
+	@Benchmark
+	public String toStringRecord()
+	{
+		return record.toString();
+	}
+
+	@Benchmark
+	public Object buildExample()
+	{
+		return exampleFactory.get();
+	}
+}
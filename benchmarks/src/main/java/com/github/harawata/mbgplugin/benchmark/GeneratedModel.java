@@ -0,0 +1,248 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.github.harawata.mbgplugin.benchmark.SyntheticSchema.ColumnType;
+
+/**
+ * Generates the model classes of a single synthetic table with the given plugins, compiles
+ * them and loads them into a new class loader.<br>
+ * Besides the generated classes, an <code>ExampleFactory</code> class is compiled that builds
+ * an example with a few criteria in straight-line code, so that the benchmark does not measure
+ * reflection.<br>
+ * Requires a JDK (javax.tools).
+ */
+public class GeneratedModel
+{
+	public static final String TABLE_NAME = "WIDE";
+
+	private static final String RECORD_CLASS = GeneratorRunner.MODEL_PACKAGE + ".Wide";
+
+	private static final String EXAMPLE_FACTORY_CLASS = GeneratorRunner.MODEL_PACKAGE
+		+ ".ExampleFactory";
+
+	/** The number of criteria the example factory adds. */
+	private static final int CRITERIA = 8;
+
+	private final Path workDir;
+
+	private final Class<?> recordClass;
+
+	private final Supplier<Object> exampleFactory;
+
+	/**
+	 * @param columns the number of columns in addition to the primary key.
+	 * @param plugins plugin classes and their properties (the properties may be <code>null</code>).
+	 */
+	@SuppressWarnings("unchecked")
+	public GeneratedModel(int columns, Map<Class<?>, Map<String, String>> plugins)
+		throws Exception
+	{
+		workDir = Files.createTempDirectory("mbg-benchmark");
+		File sourceDir = workDir.resolve("src").toFile();
+		File classDir = workDir.resolve("classes").toFile();
+		sourceDir.mkdirs();
+		classDir.mkdirs();
+
+		SyntheticSchema schema = new SyntheticSchema();
+		try
+		{
+			schema.createTable(TABLE_NAME, columns);
+			GeneratorRunner runner = new GeneratorRunner(schema, sourceDir);
+			for (Map.Entry<Class<?>, Map<String, String>> plugin : plugins.entrySet())
+			{
+				runner.addPlugin(plugin.getKey(), plugin.getValue());
+			}
+			runner.addTables(Collections.singletonList(TABLE_NAME));
+			runner.generate();
+		}
+		finally
+		{
+			schema.close();
+		}
+
+		File modelDir = new File(sourceDir, GeneratorRunner.MODEL_PACKAGE.replace('.', '/'));
+		writeExampleFactory(new File(modelDir, "ExampleFactory.java"), columns);
+		compile(modelDir, classDir);
+
+		ClassLoader classLoader = new URLClassLoader(new URL[] {
+			classDir.toURI().toURL()
+		}, getClass().getClassLoader());
+		recordClass = classLoader.loadClass(RECORD_CLASS);
+		exampleFactory = (Supplier<Object>)classLoader.loadClass(EXAMPLE_FACTORY_CLASS)
+			.newInstance();
+	}
+
+	/**
+	 * Returns a new record with all the properties set.<br>
+	 * Two records returned by this method are equal, but do not share mutable instances.
+	 */
+	public Object newRecord() throws Exception
+	{
+		Object record = recordClass.newInstance();
+		for (Method method : recordClass.getMethods())
+		{
+			if (method.getName().startsWith("set") && method.getParameterTypes().length == 1)
+			{
+				ColumnType columnType = ColumnType.forJavaType(method.getParameterTypes()[0]);
+				if (columnType != null)
+					method.invoke(record, columnType.sampleValue());
+			}
+		}
+		return record;
+	}
+
+	public Supplier<Object> getExampleFactory()
+	{
+		return exampleFactory;
+	}
+
+	public void delete() throws IOException
+	{
+		deleteRecursively(workDir);
+	}
+
+	/**
+	 * Deletes the directory and everything under it.
+	 */
+	static void deleteRecursively(Path root) throws IOException
+	{
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+				throws IOException
+			{
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+				throws IOException
+			{
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void writeExampleFactory(File file, int columns) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("package ").append(GeneratorRunner.MODEL_PACKAGE).append(";\n\n");
+		sb.append("public class ExampleFactory implements java.util.function.Supplier<Object> {\n");
+		sb.append("    public Object get() {\n");
+		sb.append("        WideExample example = new WideExample();\n");
+		sb.append("        example.createCriteria()\n");
+		sb.append("            .andIdEqualTo(Long.valueOf(1L))");
+		for (int i = 1; i <= Math.min(columns, CRITERIA - 1); i++)
+		{
+			String property = SyntheticSchema.propertyName(i);
+			String method = "and" + Character.toUpperCase(property.charAt(0))
+				+ property.substring(1);
+			String literal = SyntheticSchema.columnType(i).getJavaLiteral();
+			sb.append("\n            .");
+			switch (i % 3)
+			{
+				case 0:
+					sb.append(method).append("IsNotNull()");
+					break;
+				case 1:
+					sb.append(method).append("EqualTo(").append(literal).append(')');
+					break;
+				default:
+					sb.append(method)
+						.append("In(java.util.Arrays.asList(")
+						.append(literal)
+						.append(", ")
+						.append(literal)
+						.append("))");
+					break;
+			}
+		}
+		sb.append(";\n");
+		sb.append("        example.setOrderByClause(\"ID\");\n");
+		sb.append("        return example;\n");
+		sb.append("    }\n");
+		sb.append("}\n");
+
+		Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+		try
+		{
+			writer.write(sb.toString());
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	private void compile(File sourceDir, File classDir) throws IOException
+	{
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null)
+			throw new IllegalStateException("The benchmark must be run on a JDK.");
+
+		List<File> sources = new ArrayList<File>();
+		for (File file : sourceDir.listFiles())
+		{
+			if (file.getName().endsWith(".java"))
+				sources.add(file);
+		}
+
+		StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+		try
+		{
+			Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromFiles(sources);
+			List<String> options = new ArrayList<String>();
+			options.add("-nowarn");
+			options.add("-d");
+			options.add(classDir.getAbsolutePath());
+			if (!compiler.getTask(null, fileManager, null, options, null, units).call())
+				throw new IllegalStateException("Failed to compile the generated sources in "
+					+ sourceDir);
+		}
+		finally
+		{
+			fileManager.close();
+		}
+	}
+}
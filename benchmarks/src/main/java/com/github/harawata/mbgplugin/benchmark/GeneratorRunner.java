@@ -0,0 +1,121 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.mybatis.generator.api.MyBatisGenerator;
+import org.mybatis.generator.config.CommentGeneratorConfiguration;
+import org.mybatis.generator.config.Configuration;
+import org.mybatis.generator.config.Context;
+import org.mybatis.generator.config.JDBCConnectionConfiguration;
+import org.mybatis.generator.config.JavaClientGeneratorConfiguration;
+import org.mybatis.generator.config.JavaModelGeneratorConfiguration;
+import org.mybatis.generator.config.ModelType;
+import org.mybatis.generator.config.PluginConfiguration;
+import org.mybatis.generator.config.SqlMapGeneratorConfiguration;
+import org.mybatis.generator.config.TableConfiguration;
+import org.mybatis.generator.internal.DefaultShellCallback;
+
+/**
+ * Runs MyBatis Generator against a {@link SyntheticSchema} without a configuration file.
+ */
+public class GeneratorRunner
+{
+	public static final String MODEL_PACKAGE = "bench.model";
+
+	public static final String MAPPER_PACKAGE = "bench.mapper";
+
+	private final Context context;
+
+	public GeneratorRunner(SyntheticSchema schema, File outputDir)
+	{
+		context = new Context(ModelType.CONDITIONAL);
+		context.setId("benchmark");
+		context.setTargetRuntime("MyBatis3");
+
+		CommentGeneratorConfiguration commentGenerator = new CommentGeneratorConfiguration();
+		commentGenerator.addProperty("suppressAllComments", "true");
+		context.setCommentGeneratorConfiguration(commentGenerator);
+
+		JDBCConnectionConfiguration jdbcConnection = new JDBCConnectionConfiguration();
+		jdbcConnection.setDriverClass("org.h2.Driver");
+		jdbcConnection.setConnectionURL(schema.getUrl());
+		context.setJdbcConnectionConfiguration(jdbcConnection);
+
+		String targetProject = outputDir.getAbsolutePath();
+
+		JavaModelGeneratorConfiguration javaModelGenerator = new JavaModelGeneratorConfiguration();
+		javaModelGenerator.setTargetPackage(MODEL_PACKAGE);
+		javaModelGenerator.setTargetProject(targetProject);
+		context.setJavaModelGeneratorConfiguration(javaModelGenerator);
+
+		SqlMapGeneratorConfiguration sqlMapGenerator = new SqlMapGeneratorConfiguration();
+		sqlMapGenerator.setTargetPackage(MAPPER_PACKAGE);
+		sqlMapGenerator.setTargetProject(targetProject);
+		context.setSqlMapGeneratorConfiguration(sqlMapGenerator);
+
+		JavaClientGeneratorConfiguration javaClientGenerator = new JavaClientGeneratorConfiguration();
+		javaClientGenerator.setConfigurationType("XMLMAPPER");
+		javaClientGenerator.setTargetPackage(MAPPER_PACKAGE);
+		javaClientGenerator.setTargetProject(targetProject);
+		context.setJavaClientGeneratorConfiguration(javaClientGenerator);
+	}
+
+	public void addPlugin(Class<?> pluginClass, Map<String, String> properties)
+	{
+		PluginConfiguration plugin = new PluginConfiguration();
+		plugin.setConfigurationType(pluginClass.getName());
+		if (properties != null)
+		{
+			for (Map.Entry<String, String> property : properties.entrySet())
+			{
+				plugin.addProperty(property.getKey(), property.getValue());
+			}
+		}
+		context.addPluginConfiguration(plugin);
+	}
+
+	public void addTables(Collection<String> tableNames)
+	{
+		for (String tableName : tableNames)
+		{
+			TableConfiguration table = new TableConfiguration(context);
+			table.setTableName(tableName);
+			context.addTableConfiguration(table);
+		}
+	}
+
+	/**
+	 * Generates the files and returns the warnings reported by MyBatis Generator.
+	 */
+	public List<String> generate() throws Exception
+	{
+		Configuration configuration = new Configuration();
+		configuration.addContext(context);
+
+		List<String> warnings = new ArrayList<String>();
+		MyBatisGenerator generator = new MyBatisGenerator(configuration,
+			new DefaultShellCallback(true), warnings);
+		generator.generate(null);
+		return warnings;
+	}
+}
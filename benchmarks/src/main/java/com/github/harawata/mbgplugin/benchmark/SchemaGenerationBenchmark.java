@@ -0,0 +1,250 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.harawata.mbgplugin.BatchInsertPlugin;
+import com.github.harawata.mbgplugin.BinarySerializationPlugin;
+import com.github.harawata.mbgplugin.CaseInsensitveLikePlugin;
+import com.github.harawata.mbgplugin.ColumnProjectionPlugin;
+import com.github.harawata.mbgplugin.EqualsHashCodePlugin;
+import com.github.harawata.mbgplugin.ExistsByExamplePlugin;
+import com.github.harawata.mbgplugin.ForUpdatePlugin;
+import com.github.harawata.mbgplugin.GenerationProfilerPlugin;
+import com.github.harawata.mbgplugin.InListCriteriaPlugin;
+import com.github.harawata.mbgplugin.ImmutableModelPlugin;
+import com.github.harawata.mbgplugin.InsensitveAddCriterionPlugin;
+import com.github.harawata.mbgplugin.KeysetPaginationPlugin;
+import com.github.harawata.mbgplugin.LeftValueCriteriaPlugin;
+import com.github.harawata.mbgplugin.MySqlDeleteByExamplePlugin;
+import com.github.harawata.mbgplugin.PrimitivePropertyPlugin;
+import com.github.harawata.mbgplugin.SecondLevelCachePlugin;
+import com.github.harawata.mbgplugin.SelectByPrimaryKeysPlugin;
+import com.github.harawata.mbgplugin.SharedCriterionPlugin;
+import com.github.harawata.mbgplugin.StatementMetricsPlugin;
+import com.github.harawata.mbgplugin.StreamingSelectPlugin;
+import com.github.harawata.mbgplugin.ToStringPlugin;
+import com.github.harawata.mbgplugin.UpsertPlugin;
+
+/**
+ * Measures MyBatis Generator itself with all the plugins enabled against a synthetic schema of
+ * <code>tables</code> tables, each of which has a primary key column and <code>columns</code>
+ * other columns.<br>
+ * Each invocation is a full generation into a new directory, so the score is the total time of
+ * one run. The secondary results report the peak heap usage during the run (the sum of the
+ * peaks of the heap pools, which may be a little more than the actual peak) and the size of
+ * the generated files.<br>
+ * With <code>-p profile=true</code>, {@link GenerationProfilerPlugin} is added and writes the
+ * time of each plugin hook to <code>mbg-profile-{tables}x{columns}.txt</code> in the current
+ * directory.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {
+	"-Xms1g", "-Xmx1g"
+})
+@State(Scope.Benchmark)
+public class SchemaGenerationBenchmark
+{
+	@Param({
+		"10", "100"
+	})
+	public int tables;
+
+	@Param({
+		"10", "80"
+	})
+	public int columns;
+
+	@Param({
+		"false"
+	})
+	public boolean profile;
+
+	private SyntheticSchema schema;
+
+	private List<String> tableNames;
+
+	private Path outputDir;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Footprint
+	{
+		public long peakHeapMB;
+
+		public long outputKB;
+
+		public long outputFiles;
+
+		@Setup(Level.Iteration)
+		public void reset()
+		{
+			peakHeapMB = 0L;
+			outputKB = 0L;
+			outputFiles = 0L;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		schema = new SyntheticSchema();
+		tableNames = new ArrayList<String>();
+		for (int i = 1; i <= tables; i++)
+		{
+			String tableName = String.format("T%04d", i);
+			schema.createTable(tableName, columns);
+			tableNames.add(tableName);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception
+	{
+		schema.close();
+	}
+
+	@Setup(Level.Iteration)
+	public void setUpIteration() throws Exception
+	{
+		outputDir = Files.createTempDirectory("mbg-schema-benchmark");
+		// start from a clean heap so that the peak belongs to this run
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDownIteration() throws Exception
+	{
+		GeneratedModel.deleteRecursively(outputDir);
+	}
+
+	@Benchmark
+	public List<String> generate(Footprint footprint) throws Exception
+	{
+		GeneratorRunner runner = new GeneratorRunner(schema, outputDir.toFile());
+		for (Map.Entry<Class<?>, Map<String, String>> plugin : plugins().entrySet())
+		{
+			runner.addPlugin(plugin.getKey(), plugin.getValue());
+		}
+		runner.addTables(tableNames);
+		List<String> warnings = runner.generate();
+
+		long peak = 0L;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		footprint.peakHeapMB = peak / (1024 * 1024);
+
+		final long[] size = new long[2];
+		Files.walkFileTree(outputDir, new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+				throws IOException
+			{
+				size[0] += attrs.size();
+				size[1]++;
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		footprint.outputKB = size[0] / 1024;
+		footprint.outputFiles = size[1];
+		return warnings;
+	}
+
+	/**
+	 * Returns all the plugins in <code>com.github.harawata.mbgplugin</code> with the
+	 * properties that enable their optional features.
+	 */
+	private Map<Class<?>, Map<String, String>> plugins()
+	{
+		Map<Class<?>, Map<String, String>> plugins = new LinkedHashMap<Class<?>, Map<String, String>>();
+		if (profile)
+			plugins.put(GenerationProfilerPlugin.class, Collections.singletonMap("reportFile",
+				"mbg-profile-" + tables + "x" + columns + ".txt"));
+
+		plugins.put(PrimitivePropertyPlugin.class, Collections.singletonMap("primitiveTypes",
+			"true"));
+		Map<String, String> equalsHashCode = new LinkedHashMap<String, String>();
+		equalsHashCode.put("cacheHashCode", tableNames.get(0));
+		equalsHashCode.put("shapeKey", "true");
+		plugins.put(EqualsHashCodePlugin.class, equalsHashCode);
+		plugins.put(ToStringPlugin.class, Collections.singletonMap("blobMaxLength", "50"));
+		plugins.put(ForUpdatePlugin.class, null);
+		plugins.put(LeftValueCriteriaPlugin.class, null);
+		plugins.put(CaseInsensitveLikePlugin.class, Collections.singletonMap("prefixSearch",
+			"true"));
+		plugins.put(InsensitveAddCriterionPlugin.class, null);
+		plugins.put(InListCriteriaPlugin.class, null);
+		plugins.put(MySqlDeleteByExamplePlugin.class, null);
+		plugins.put(KeysetPaginationPlugin.class, null);
+		plugins.put(SharedCriterionPlugin.class, null);
+		plugins.put(ColumnProjectionPlugin.class, null);
+		plugins.put(StreamingSelectPlugin.class, null);
+		plugins.put(ExistsByExamplePlugin.class, null);
+		plugins.put(UpsertPlugin.class, null);
+		plugins.put(BatchInsertPlugin.class, null);
+		plugins.put(SelectByPrimaryKeysPlugin.class, null);
+		plugins.put(StatementMetricsPlugin.class, null);
+		plugins.put(BinarySerializationPlugin.class, Collections.singletonMap("externalizable",
+			"true"));
+		plugins.put(SecondLevelCachePlugin.class, Collections.singletonMap("cacheAllTables",
+			"true"));
+		plugins.put(ImmutableModelPlugin.class, Collections.singletonMap("tables", "*"));
+		return plugins;
+	}
+}
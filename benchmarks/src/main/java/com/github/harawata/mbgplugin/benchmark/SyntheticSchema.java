@@ -0,0 +1,196 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates tables with an arbitrary number of columns in an in-memory H2 database.<br>
+ * The first column <code>ID</code> is the primary key and the types of the other columns
+ * (<code>COL_001</code>, <code>COL_002</code>, ...) rotate through {@link ColumnType}.<br>
+ * The database lives until {@link #close()} is called.
+ */
+public class SyntheticSchema
+{
+	public enum ColumnType
+	{
+		VARCHAR("varchar(64)", String.class, "\"benchmark value\"")
+		{
+			public Object sampleValue()
+			{
+				// a new instance so that equals() cannot short-circuit on identity
+				return new String("benchmark value");
+			}
+		},
+		INTEGER("integer", Integer.class, "Integer.valueOf(42)")
+		{
+			public Object sampleValue()
+			{
+				return Integer.valueOf(42);
+			}
+		},
+		BIGINT("bigint", Long.class, "Long.valueOf(42L)")
+		{
+			public Object sampleValue()
+			{
+				return Long.valueOf(42L);
+			}
+		},
+		DECIMAL("decimal(12,2)", BigDecimal.class, "new java.math.BigDecimal(\"12.34\")")
+		{
+			public Object sampleValue()
+			{
+				return new BigDecimal("12.34");
+			}
+		},
+		TIMESTAMP("timestamp", Date.class, "new java.util.Date(0L)")
+		{
+			public Object sampleValue()
+			{
+				return new Date(0L);
+			}
+		},
+		DOUBLE("double", Double.class, "Double.valueOf(0.5d)")
+		{
+			public Object sampleValue()
+			{
+				return Double.valueOf(0.5d);
+			}
+		},
+		BOOLEAN("boolean", Boolean.class, "Boolean.TRUE")
+		{
+			public Object sampleValue()
+			{
+				return Boolean.TRUE;
+			}
+		};
+
+		private final String sqlType;
+
+		private final Class<?> javaType;
+
+		private final String javaLiteral;
+
+		private ColumnType(String sqlType, Class<?> javaType, String javaLiteral)
+		{
+			this.sqlType = sqlType;
+			this.javaType = javaType;
+			this.javaLiteral = javaLiteral;
+		}
+
+		public String getSqlType()
+		{
+			return sqlType;
+		}
+
+		public Class<?> getJavaType()
+		{
+			return javaType;
+		}
+
+		/**
+		 * Returns a java expression that evaluates to {@link #sampleValue()}.
+		 */
+		public String getJavaLiteral()
+		{
+			return javaLiteral;
+		}
+
+		public abstract Object sampleValue();
+
+		public static ColumnType forJavaType(Class<?> javaType)
+		{
+			for (ColumnType columnType : values())
+			{
+				if (columnType.javaType.equals(javaType))
+					return columnType;
+			}
+			return null;
+		}
+	}
+
+	private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+	private final String url;
+
+	private final Connection connection;
+
+	public SyntheticSchema() throws SQLException
+	{
+		url = "jdbc:h2:mem:synthetic" + SEQUENCE.incrementAndGet();
+		connection = DriverManager.getConnection(url);
+	}
+
+	public String getUrl()
+	{
+		return url;
+	}
+
+	public static ColumnType columnType(int columnIndex)
+	{
+		ColumnType[] types = ColumnType.values();
+		return types[(columnIndex - 1) % types.length];
+	}
+
+	public static String columnName(int columnIndex)
+	{
+		return String.format("COL_%03d", columnIndex);
+	}
+
+	/**
+	 * Returns the java property name MyBatis Generator derives from the column name.
+	 */
+	public static String propertyName(int columnIndex)
+	{
+		return String.format("col%03d", columnIndex);
+	}
+
+	/**
+	 * Creates a table with the primary key column and <code>columns</code> other columns.
+	 */
+	public void createTable(String tableName, int columns) throws SQLException
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("create table ").append(tableName).append(" (id bigint not null primary key");
+		for (int i = 1; i <= columns; i++)
+		{
+			sb.append(", ").append(columnName(i)).append(' ').append(columnType(i).getSqlType());
+		}
+		sb.append(')');
+
+		Statement statement = connection.createStatement();
+		try
+		{
+			statement.execute(sb.toString());
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+
+	public void close() throws SQLException
+	{
+		connection.close();
+	}
+}
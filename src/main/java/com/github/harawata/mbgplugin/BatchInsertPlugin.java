@@ -0,0 +1,247 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mybatis.generator.api.GeneratedJavaFile;
+import org.mybatis.generator.api.IntrospectedColumn;
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.Interface;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.Parameter;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+import org.mybatis.generator.api.dom.xml.Attribute;
+import org.mybatis.generator.api.dom.xml.Document;
+import org.mybatis.generator.api.dom.xml.Element;
+import org.mybatis.generator.api.dom.xml.TextElement;
+import org.mybatis.generator.api.dom.xml.XmlElement;
+import org.mybatis.generator.codegen.mybatis3.MyBatis3FormattingUtilities;
+
+/**
+ * This plugin adds insertBatch(List) to the mapper, which inserts the records with a single
+ * multi-row <code>insert into ... values (...), (...)</code> statement, and XxxMapperBatchInsert
+ * class which splits a list of any size into chunks and calls insertBatch for each of them.<br>
+ * A chunk contains at most <code>batchMaxRows</code> rows (1000 by default) and at most
+ * <code>batchMaxParameters</code> bind parameters (32767 by default, which is below the
+ * placeholder limits of MySQL and PostgreSQL drivers).<br>
+ * Identity columns are omitted as in insert, and generated keys are not retrieved.
+ */
+public class BatchInsertPlugin extends PluginAdapter
+{
+	private static final String INSERT_BATCH = "insertBatch";
+
+	private int batchMaxRows;
+
+	private int batchMaxParameters;
+
+	public boolean validate(List<String> warnings)
+	{
+		batchMaxRows = PluginSupport.getPositiveIntProperty(properties, "batchMaxRows", 1000,
+			"BatchInsertPlugin", warnings);
+		batchMaxParameters = PluginSupport.getPositiveIntProperty(properties,
+			"batchMaxParameters", 32767, "BatchInsertPlugin", warnings);
+		return batchMaxRows > 0 && batchMaxParameters > 0;
+	}
+
+	@Override
+	public boolean sqlMapDocumentGenerated(Document document, IntrospectedTable introspectedTable)
+	{
+		if (!isInsertBatchEnabled(introspectedTable))
+			return true;
+
+		XmlElement answer = new XmlElement("insert");
+		answer.addAttribute(new Attribute("id", INSERT_BATCH));
+		answer.addAttribute(new Attribute("parameterType", "map"));
+		context.getCommentGenerator().addComment(answer);
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("insert into ");
+		sb.append(introspectedTable.getFullyQualifiedTableNameAtRuntime());
+		sb.append(" (");
+		boolean first = true;
+		for (IntrospectedColumn column : getInsertColumns(introspectedTable))
+		{
+			if (!first)
+				sb.append(", ");
+			sb.append(MyBatis3FormattingUtilities.getEscapedColumnName(column));
+			first = false;
+		}
+		sb.append(')');
+		answer.addElement(new TextElement(sb.toString()));
+		answer.addElement(new TextElement("values"));
+
+		XmlElement foreach = new XmlElement("foreach");
+		foreach.addAttribute(new Attribute("collection", "records"));
+		foreach.addAttribute(new Attribute("item", "record"));
+		foreach.addAttribute(new Attribute("separator", ","));
+		sb.setLength(0);
+		sb.append('(');
+		first = true;
+		for (IntrospectedColumn column : getInsertColumns(introspectedTable))
+		{
+			if (!first)
+				sb.append(", ");
+			sb.append(MyBatis3FormattingUtilities.getParameterClause(column, "record."));
+			first = false;
+		}
+		sb.append(')');
+		foreach.addElement(new TextElement(sb.toString()));
+		answer.addElement(foreach);
+
+		// put it after insertSelective (or insert)
+		XmlElement root = document.getRootElement();
+		int index = root.getElements().size();
+		for (int i = 0; i < root.getElements().size(); i++)
+		{
+			Element elem = root.getElements().get(i);
+			if (elem instanceof XmlElement
+				&& (hasId((XmlElement)elem, introspectedTable.getInsertStatementId()) || hasId(
+					(XmlElement)elem, introspectedTable.getInsertSelectiveStatementId())))
+				index = i + 1;
+		}
+		root.addElement(index, answer);
+		return true;
+	}
+
+	@Override
+	public boolean clientGenerated(Interface interfaze, TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		if (!isInsertBatchEnabled(introspectedTable))
+			return true;
+
+		FullyQualifiedJavaType recordType = getRecordType(introspectedTable);
+		FullyQualifiedJavaType listType = FullyQualifiedJavaType.getNewListInstance();
+		listType.addTypeArgument(recordType);
+		interfaze.addImportedType(recordType);
+		interfaze.addImportedType(FullyQualifiedJavaType.getNewListInstance());
+		interfaze.addImportedType(new FullyQualifiedJavaType("org.apache.ibatis.annotations.Param"));
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName(INSERT_BATCH);
+		method.addParameter(new Parameter(listType, "records", "@Param(\"records\")"));
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		interfaze.addMethod(method);
+		return true;
+	}
+
+	@Override
+	public List<GeneratedJavaFile> contextGenerateAdditionalJavaFiles(
+		IntrospectedTable introspectedTable)
+	{
+		List<GeneratedJavaFile> answer = new ArrayList<GeneratedJavaFile>();
+		if (!isInsertBatchEnabled(introspectedTable))
+			return answer;
+
+		FullyQualifiedJavaType mapperType = new FullyQualifiedJavaType(
+			introspectedTable.getMyBatis3JavaMapperType());
+		FullyQualifiedJavaType recordType = getRecordType(introspectedTable);
+		FullyQualifiedJavaType listType = FullyQualifiedJavaType.getNewListInstance();
+		listType.addTypeArgument(recordType);
+
+		TopLevelClass topLevelClass = PluginSupport.createMapperHelperClass(context,
+			introspectedTable, "BatchInsert");
+		topLevelClass.addImportedType(recordType);
+		topLevelClass.addImportedType(FullyQualifiedJavaType.getNewListInstance());
+
+		int columnCount = getInsertColumns(introspectedTable).size();
+		int chunkSize = Math.max(1, Math.min(batchMaxRows, batchMaxParameters / columnCount));
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setStatic(true);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName(INSERT_BATCH);
+		method.addParameter(new Parameter(mapperType, "mapper"));
+		method.addParameter(new Parameter(listType, "records"));
+		method.addBodyLine("return " + INSERT_BATCH + "(mapper, records, " + chunkSize + ");");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setStatic(true);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName(INSERT_BATCH);
+		method.addParameter(new Parameter(mapperType, "mapper"));
+		method.addParameter(new Parameter(listType, "records"));
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getIntInstance(), "chunkSize"));
+		method.addBodyLine("if (chunkSize <= 0 || chunkSize > " + chunkSize + ") {");
+		method.addBodyLine("throw new IllegalArgumentException(\"chunkSize must be between 1 and "
+			+ chunkSize + "\");");
+		method.addBodyLine("}");
+		method.addBodyLine("int total = 0;");
+		method.addBodyLine("int size = records.size();");
+		method.addBodyLine("for (int from = 0; from < size; from += chunkSize) {");
+		method.addBodyLine("total += mapper." + INSERT_BATCH
+			+ "(records.subList(from, Math.min(from + chunkSize, size)));");
+		method.addBodyLine("}");
+		method.addBodyLine("return total;");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		answer.add(PluginSupport.createMapperHelperFile(context, topLevelClass));
+		return answer;
+	}
+
+	private boolean isInsertBatchEnabled(IntrospectedTable introspectedTable)
+	{
+		return introspectedTable.getRules().generateInsert()
+			&& PluginSupport.hasMapperInterface(context, introspectedTable)
+			&& !getInsertColumns(introspectedTable).isEmpty();
+	}
+
+	private List<IntrospectedColumn> getInsertColumns(IntrospectedTable introspectedTable)
+	{
+		List<IntrospectedColumn> columns = new ArrayList<IntrospectedColumn>();
+		for (IntrospectedColumn column : introspectedTable.getAllColumns())
+		{
+			if (!column.isIdentity())
+				columns.add(column);
+		}
+		return columns;
+	}
+
+	/**
+	 * The record type that insert takes, i.e. the one with all the columns.
+	 */
+	private FullyQualifiedJavaType getRecordType(IntrospectedTable introspectedTable)
+	{
+		if (introspectedTable.getRules().generateRecordWithBLOBsClass())
+			return new FullyQualifiedJavaType(introspectedTable.getRecordWithBLOBsType());
+		if (introspectedTable.getRules().generateBaseRecordClass())
+			return new FullyQualifiedJavaType(introspectedTable.getBaseRecordType());
+		return new FullyQualifiedJavaType(introspectedTable.getPrimaryKeyType());
+	}
+
+	private boolean hasId(XmlElement element, String id)
+	{
+		for (Attribute attribute : element.getAttributes())
+		{
+			if ("id".equals(attribute.getName()))
+				return id.equals(attribute.getValue());
+		}
+		return false;
+	}
+}
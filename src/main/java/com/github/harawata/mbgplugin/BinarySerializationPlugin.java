@@ -0,0 +1,566 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.mybatis.generator.api.IntrospectedColumn;
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.Field;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.Parameter;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+
+/**
+ * This plugin adds <code>writeTo(DataOutput)</code> and <code>static readFrom(DataInput)</code>
+ * methods to the generated model classes (primary key, base record and record with BLOBs), which
+ * serialize the fields without reflection.<br>
+ * The nullable fields are preceded by a null bitmap (one byte per eight fields) and each field
+ * is written by an encoding specialized for its type: the primitives and the wrappers as is,
+ * <code>String</code> by <code>writeUTF()</code> if the column length allows it (UTF-8 bytes
+ * otherwise), <code>BigDecimal</code> as the scale and the unscaled bytes, the dates as the
+ * epoch millis (and the nanos for <code>Timestamp</code>) and the arrays as the length and the
+ * bytes.<br>
+ * The subclasses write the fields of the superclass first, and the binary format depends on
+ * the order of the columns, so the writer and the reader must be generated from the same
+ * schema.<br>
+ * If <code>externalizable</code> property is true, the classes also implement
+ * <code>java.io.Externalizable</code> using the methods above.<br>
+ * The classes without a no-arg constructor (e.g. the variant generated by ImmutableModelPlugin)
+ * are read by their constructor and never implement Externalizable. The tables with a column
+ * of an unsupported java type (e.g. <code>Object</code>) are skipped.
+ */
+public class BinarySerializationPlugin extends PluginAdapter
+{
+	/** writeUTF() fails when the encoded string is longer than 65535 bytes. */
+	private static final int UTF_MAX_LENGTH = 65535 / 3;
+
+	private static final Map<String, String> DATA_TYPES = new HashMap<String, String>();
+
+	static
+	{
+		DATA_TYPES.put("boolean", "Boolean");
+		DATA_TYPES.put("byte", "Byte");
+		DATA_TYPES.put("short", "Short");
+		DATA_TYPES.put("char", "Char");
+		DATA_TYPES.put("int", "Int");
+		DATA_TYPES.put("long", "Long");
+		DATA_TYPES.put("float", "Float");
+		DATA_TYPES.put("double", "Double");
+		DATA_TYPES.put("java.lang.Boolean", "Boolean");
+		DATA_TYPES.put("java.lang.Byte", "Byte");
+		DATA_TYPES.put("java.lang.Short", "Short");
+		DATA_TYPES.put("java.lang.Character", "Char");
+		DATA_TYPES.put("java.lang.Integer", "Int");
+		DATA_TYPES.put("java.lang.Long", "Long");
+		DATA_TYPES.put("java.lang.Float", "Float");
+		DATA_TYPES.put("java.lang.Double", "Double");
+	}
+
+	private static final Set<String> OBJECT_TYPES = new HashSet<String>();
+
+	static
+	{
+		OBJECT_TYPES.add("java.lang.String");
+		OBJECT_TYPES.add("java.math.BigDecimal");
+		OBJECT_TYPES.add("java.math.BigInteger");
+		OBJECT_TYPES.add("java.util.Date");
+		OBJECT_TYPES.add("java.sql.Date");
+		OBJECT_TYPES.add("java.sql.Time");
+		OBJECT_TYPES.add("java.sql.Timestamp");
+		OBJECT_TYPES.add("byte[]");
+	}
+
+	private boolean externalizable;
+
+	public boolean validate(List<String> warnings)
+	{
+		externalizable = "true".equalsIgnoreCase(properties.getProperty("externalizable",
+			"false").trim());
+		return true;
+	}
+
+	@Override
+	public boolean modelBaseRecordClassGenerated(TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		generateSerialization(introspectedTable, topLevelClass);
+		return true;
+	}
+
+	@Override
+	public boolean modelPrimaryKeyClassGenerated(TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		generateSerialization(introspectedTable, topLevelClass);
+		return true;
+	}
+
+	@Override
+	public boolean modelRecordWithBLOBsClassGenerated(TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		generateSerialization(introspectedTable, topLevelClass);
+		return true;
+	}
+
+	private void generateSerialization(IntrospectedTable introspectedTable,
+		TopLevelClass topLevelClass)
+	{
+		if (!isSupported(introspectedTable, topLevelClass))
+			return;
+
+		List<Field> fields = new ArrayList<Field>();
+		Set<String> names = new HashSet<String>();
+		for (Field field : topLevelClass.getFields())
+		{
+			if (field.isStatic() || isTransient(field))
+				continue;
+			fields.add(field);
+			names.add(field.getName());
+		}
+
+		Map<String, IntrospectedColumn> columnMap = new HashMap<String, IntrospectedColumn>();
+		for (IntrospectedColumn column : introspectedTable.getAllColumns())
+		{
+			columnMap.put(column.getJavaProperty(), column);
+		}
+
+		boolean generatedSuperClass = hasGeneratedSuperClass(introspectedTable, topLevelClass);
+		Method constructor = getArgsConstructor(topLevelClass);
+		if (constructor != null && (generatedSuperClass || !isConstructorOf(constructor, names)))
+			return;
+
+		FullyQualifiedJavaType dataOutput = new FullyQualifiedJavaType("java.io.DataOutput");
+		FullyQualifiedJavaType dataInput = new FullyQualifiedJavaType("java.io.DataInput");
+		FullyQualifiedJavaType ioException = new FullyQualifiedJavaType("java.io.IOException");
+		topLevelClass.addImportedType(dataOutput);
+		topLevelClass.addImportedType(dataInput);
+		topLevelClass.addImportedType(ioException);
+
+		// writeTo
+		String out = unusedName("out", names);
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setName("writeTo");
+		method.addParameter(new Parameter(dataOutput, out));
+		method.addException(ioException);
+		if (generatedSuperClass && introspectedTable.isJava5Targeted())
+		{
+			method.addAnnotation("@Override");
+		}
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		if (generatedSuperClass)
+			method.addBodyLine("super.writeTo(" + out + ");");
+		addWriteLines(method, fields, columnMap, out, names);
+		topLevelClass.addMethod(method);
+
+		String in = unusedName("in", names);
+		FullyQualifiedJavaType type = topLevelClass.getType();
+		if (constructor == null)
+		{
+			method = new Method();
+			method.setVisibility(JavaVisibility.PROTECTED);
+			method.setName("readFields");
+			method.addParameter(new Parameter(dataInput, in));
+			method.addException(ioException);
+			if (generatedSuperClass && introspectedTable.isJava5Targeted())
+			{
+				method.addAnnotation("@Override");
+			}
+			context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+			if (generatedSuperClass)
+				method.addBodyLine("super.readFields(" + in + ");");
+			addReadLines(method, fields, columnMap, in, names, false);
+			topLevelClass.addMethod(method);
+
+			method = new Method();
+			method.setVisibility(JavaVisibility.PUBLIC);
+			method.setStatic(true);
+			method.setReturnType(type);
+			method.setName("readFrom");
+			method.addParameter(new Parameter(dataInput, in));
+			method.addException(ioException);
+			context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+			method.addBodyLine(type.getShortName() + " record = new " + type.getShortName()
+				+ "();");
+			method.addBodyLine("record.readFields(" + in + ");");
+			method.addBodyLine("return record;");
+			topLevelClass.addMethod(method);
+
+			if (externalizable && !generatedSuperClass)
+				addExternalizable(introspectedTable, topLevelClass, out, in, ioException);
+		}
+		else
+		{
+			method = new Method();
+			method.setVisibility(JavaVisibility.PUBLIC);
+			method.setStatic(true);
+			method.setReturnType(type);
+			method.setName("readFrom");
+			method.addParameter(new Parameter(dataInput, in));
+			method.addException(ioException);
+			context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+			addReadLines(method, fields, columnMap, in, names, true);
+			StringBuilder sb = new StringBuilder();
+			sb.append("return new ").append(type.getShortName()).append('(');
+			boolean first = true;
+			for (Parameter parameter : constructor.getParameters())
+			{
+				if (!first)
+					sb.append(", ");
+				sb.append(parameter.getName());
+				first = false;
+			}
+			sb.append(");");
+			method.addBodyLine(sb.toString());
+			topLevelClass.addMethod(method);
+		}
+	}
+
+	private void addExternalizable(IntrospectedTable introspectedTable,
+		TopLevelClass topLevelClass, String out, String in, FullyQualifiedJavaType ioException)
+	{
+		FullyQualifiedJavaType externalizableType = new FullyQualifiedJavaType(
+			"java.io.Externalizable");
+		FullyQualifiedJavaType objectOutput = new FullyQualifiedJavaType("java.io.ObjectOutput");
+		FullyQualifiedJavaType objectInput = new FullyQualifiedJavaType("java.io.ObjectInput");
+		topLevelClass.addImportedType(externalizableType);
+		topLevelClass.addImportedType(objectOutput);
+		topLevelClass.addImportedType(objectInput);
+		topLevelClass.addSuperInterface(externalizableType);
+
+		// the subclasses inherit these, writeTo() and readFields() are overridden
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setName("writeExternal");
+		method.addParameter(new Parameter(objectOutput, out));
+		method.addException(ioException);
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		method.addBodyLine("writeTo(" + out + ");");
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setName("readExternal");
+		method.addParameter(new Parameter(objectInput, in));
+		method.addException(ioException);
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		method.addBodyLine("readFields(" + in + ");");
+		topLevelClass.addMethod(method);
+	}
+
+	private void addWriteLines(Method method, List<Field> fields,
+		Map<String, IntrospectedColumn> columnMap, String out, Set<String> names)
+	{
+		String nulls = unusedName("nulls", names);
+		String bytes = unusedName("bytes", names);
+		List<Field> nullableFields = getNullableFields(fields);
+		boolean declared = false;
+		for (Field field : fields)
+		{
+			String property = "this." + field.getName();
+			String typeName = field.getType().getFullyQualifiedName();
+			if (field.getType().isPrimitive())
+			{
+				method.addBodyLine(out + ".write" + DATA_TYPES.get(typeName) + "(" + property
+					+ ");");
+				continue;
+			}
+
+			int index = nullableFields.indexOf(field);
+			if (index % 8 == 0)
+			{
+				// the bitmap of this and the next (up to) seven nullable fields
+				method.addBodyLine((declared ? "" : "int ") + nulls + " = 0;");
+				declared = true;
+				for (int i = index; i < Math.min(index + 8, nullableFields.size()); i++)
+				{
+					method.addBodyLine("if (this." + nullableFields.get(i).getName()
+						+ " == null) { " + nulls + " |= 0x" + Integer.toHexString(1 << (i % 8))
+						+ "; }");
+				}
+				method.addBodyLine(out + ".writeByte(" + nulls + ");");
+			}
+
+			method.addBodyLine("if (" + property + " != null) {");
+			String dataType = DATA_TYPES.get(typeName);
+			if (dataType != null)
+			{
+				method.addBodyLine(out + ".write" + dataType + "(" + property + ");");
+			}
+			else if ("java.lang.String".equals(typeName))
+			{
+				if (isUtfString(columnMap.get(field.getName())))
+				{
+					method.addBodyLine(out + ".writeUTF(" + property + ");");
+				}
+				else
+				{
+					method.addBodyLine("byte[] " + bytes + " = " + property
+						+ ".getBytes(\"UTF-8\");");
+					addWriteBytesLines(method, out, bytes);
+				}
+			}
+			else if ("java.math.BigDecimal".equals(typeName))
+			{
+				method.addBodyLine(out + ".writeInt(" + property + ".scale());");
+				method.addBodyLine("byte[] " + bytes + " = " + property
+					+ ".unscaledValue().toByteArray();");
+				addWriteBytesLines(method, out, bytes);
+			}
+			else if ("java.math.BigInteger".equals(typeName))
+			{
+				method.addBodyLine("byte[] " + bytes + " = " + property + ".toByteArray();");
+				addWriteBytesLines(method, out, bytes);
+			}
+			else if ("byte[]".equals(typeName))
+			{
+				addWriteBytesLines(method, out, property);
+			}
+			else
+			{
+				method.addBodyLine(out + ".writeLong(" + property + ".getTime());");
+				if ("java.sql.Timestamp".equals(typeName))
+					method.addBodyLine(out + ".writeInt(" + property + ".getNanos());");
+			}
+			method.addBodyLine("}");
+		}
+	}
+
+	private void addWriteBytesLines(Method method, String out, String bytes)
+	{
+		method.addBodyLine(out + ".writeInt(" + bytes + ".length);");
+		method.addBodyLine(out + ".write(" + bytes + ");");
+	}
+
+	/**
+	 * @param local if true, the values are read into the local variables named after the fields
+	 *          instead of the fields.
+	 */
+	private void addReadLines(Method method, List<Field> fields,
+		Map<String, IntrospectedColumn> columnMap, String in, Set<String> names, boolean local)
+	{
+		String nulls = unusedName("nulls", names);
+		String bytes = unusedName("bytes", names);
+		String scale = unusedName("scale", names);
+		List<Field> nullableFields = getNullableFields(fields);
+		boolean declared = false;
+		for (Field field : fields)
+		{
+			FullyQualifiedJavaType type = field.getType();
+			String typeName = type.getFullyQualifiedName();
+			String target = local ? field.getName() : "this." + field.getName();
+			if (type.isPrimitive())
+			{
+				method.addBodyLine((local ? type.getShortName() + " " : "") + target + " = " + in
+					+ ".read" + DATA_TYPES.get(typeName) + "();");
+				continue;
+			}
+
+			int index = nullableFields.indexOf(field);
+			if (index % 8 == 0)
+			{
+				method.addBodyLine((declared ? "" : "int ") + nulls + " = " + in
+					+ ".readUnsignedByte();");
+				declared = true;
+			}
+
+			if (local)
+				method.addBodyLine(type.getShortName() + " " + target + " = null;");
+			method.addBodyLine("if ((" + nulls + " & 0x" + Integer.toHexString(1 << (index % 8))
+				+ ") == 0) {");
+			String dataType = DATA_TYPES.get(typeName);
+			if (dataType != null)
+			{
+				method.addBodyLine(target + " = " + in + ".read" + dataType + "();");
+			}
+			else if ("java.lang.String".equals(typeName))
+			{
+				if (isUtfString(columnMap.get(field.getName())))
+				{
+					method.addBodyLine(target + " = " + in + ".readUTF();");
+				}
+				else
+				{
+					addReadBytesLines(method, in, bytes);
+					method.addBodyLine(target + " = new String(" + bytes + ", \"UTF-8\");");
+				}
+			}
+			else if ("java.math.BigDecimal".equals(typeName))
+			{
+				method.addBodyLine("int " + scale + " = " + in + ".readInt();");
+				addReadBytesLines(method, in, bytes);
+				method.addBodyLine(target + " = new " + type.getShortName()
+					+ "(new java.math.BigInteger(" + bytes + "), " + scale + ");");
+			}
+			else if ("java.math.BigInteger".equals(typeName))
+			{
+				addReadBytesLines(method, in, bytes);
+				method.addBodyLine(target + " = new " + type.getShortName() + "(" + bytes + ");");
+			}
+			else if ("byte[]".equals(typeName))
+			{
+				addReadBytesLines(method, in, bytes);
+				method.addBodyLine(target + " = " + bytes + ";");
+			}
+			else if ("java.sql.Timestamp".equals(typeName))
+			{
+				method.addBodyLine(target + " = new " + type.getShortName() + "(" + in
+					+ ".readLong());");
+				method.addBodyLine(target + ".setNanos(" + in + ".readInt());");
+			}
+			else
+			{
+				method.addBodyLine(target + " = new " + type.getShortName() + "(" + in
+					+ ".readLong());");
+			}
+			method.addBodyLine("}");
+		}
+	}
+
+	private void addReadBytesLines(Method method, String in, String bytes)
+	{
+		method.addBodyLine("byte[] " + bytes + " = new byte[" + in + ".readInt()];");
+		method.addBodyLine(in + ".readFully(" + bytes + ");");
+	}
+
+	private List<Field> getNullableFields(List<Field> fields)
+	{
+		List<Field> nullableFields = new ArrayList<Field>();
+		for (Field field : fields)
+		{
+			if (!field.getType().isPrimitive())
+				nullableFields.add(field);
+		}
+		return nullableFields;
+	}
+
+	/**
+	 * Returns false if a field of the class or a column of the table has a java type without
+	 * the encoding, or if the table has MBG's constructor based class hierarchy, which cannot
+	 * be read field by field.
+	 */
+	private boolean isSupported(IntrospectedTable introspectedTable, TopLevelClass topLevelClass)
+	{
+		for (IntrospectedColumn column : introspectedTable.getAllColumns())
+		{
+			if (!isSupported(column.getFullyQualifiedJavaType()))
+				return false;
+		}
+		for (Field field : topLevelClass.getFields())
+		{
+			if (!field.isStatic() && !isTransient(field) && !isSupported(field.getType()))
+				return false;
+		}
+		if ((introspectedTable.isConstructorBased() || introspectedTable.isImmutable())
+			&& isGeneratedClass(introspectedTable, topLevelClass.getType())
+			&& (introspectedTable.getRules().generatePrimaryKeyClass() || introspectedTable
+				.getRules()
+				.generateRecordWithBLOBsClass()))
+			return false;
+		return true;
+	}
+
+	private boolean isSupported(FullyQualifiedJavaType type)
+	{
+		String typeName = type.getFullyQualifiedName();
+		return DATA_TYPES.containsKey(typeName) || OBJECT_TYPES.contains(typeName);
+	}
+
+	private boolean isUtfString(IntrospectedColumn column)
+	{
+		return column != null && !column.isBLOBColumn() && column.getLength() > 0
+			&& column.getLength() <= UTF_MAX_LENGTH;
+	}
+
+	/**
+	 * Returns the constructor with arguments, or <code>null</code> if the class can be
+	 * instantiated by the public no-arg constructor.
+	 */
+	private Method getArgsConstructor(TopLevelClass topLevelClass)
+	{
+		Method argsConstructor = null;
+		for (Method method : topLevelClass.getMethods())
+		{
+			if (!method.isConstructor())
+				continue;
+			if (method.getParameters().isEmpty()
+				&& method.getVisibility() == JavaVisibility.PUBLIC)
+				return null;
+			if (argsConstructor == null
+				|| method.getParameters().size() > argsConstructor.getParameters().size())
+				argsConstructor = method;
+		}
+		return argsConstructor;
+	}
+
+	/**
+	 * Returns true if the parameters of the constructor are the fields.
+	 */
+	private boolean isConstructorOf(Method constructor, Set<String> fieldNames)
+	{
+		Set<String> parameterNames = new HashSet<String>();
+		for (Parameter parameter : constructor.getParameters())
+		{
+			parameterNames.add(parameter.getName());
+		}
+		return parameterNames.equals(fieldNames);
+	}
+
+	private boolean hasGeneratedSuperClass(IntrospectedTable introspectedTable,
+		TopLevelClass topLevelClass)
+	{
+		FullyQualifiedJavaType superClass = topLevelClass.getSuperClass();
+		if (superClass == null)
+			return false;
+		String superClassName = superClass.getFullyQualifiedName();
+		return superClassName.equals(introspectedTable.getPrimaryKeyType())
+			|| superClassName.equals(introspectedTable.getBaseRecordType());
+	}
+
+	private boolean isGeneratedClass(IntrospectedTable introspectedTable,
+		FullyQualifiedJavaType type)
+	{
+		String typeName = type.getFullyQualifiedName();
+		return typeName.equals(introspectedTable.getPrimaryKeyType())
+			|| typeName.equals(introspectedTable.getBaseRecordType())
+			|| typeName.equals(introspectedTable.getRecordWithBLOBsType());
+	}
+
+	private String unusedName(String name, Set<String> names)
+	{
+		while (names.contains(name))
+		{
+			name = name + "_";
+		}
+		return name;
+	}
+
+	private boolean isTransient(Field field)
+	{
+		return field.getType().getShortName().startsWith("transient ");
+	}
+}
@@ -16,8 +16,18 @@
 
 package com.github.harawata.mbgplugin;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.mybatis.generator.api.GeneratedJavaFile;
 import org.mybatis.generator.api.IntrospectedColumn;
 import org.mybatis.generator.api.IntrospectedTable;
 import org.mybatis.generator.api.PluginAdapter;
@@ -32,15 +42,65 @@ import org.mybatis.generator.codegen.ibatis2.Ibatis2FormattingUtilities;
 /**
  * This plugin adds addXxxLikeInsensitve() methods to the example class.<br>
  * Unlike the default(bundled) plugin with the same name, the methods generated by this plugin
- * silently ignores <code>null</code>.
+ * silently ignores <code>null</code>.<br>
+ * <br>
+ * As <code>upper(col) like ?</code> cannot use an ordinary index, the comparison can be
+ * changed by <code>mode</code> property.
+ * <ul>
+ * <li><code>upper</code> (default) : <code>upper(col) like ?</code></li>
+ * <li><code>ilike</code> : <code>col ilike ?</code> (PostgreSQL, H2)</li>
+ * <li><code>collation</code> : <code>col collate xxx like ?</code> where xxx is the value of
+ * <code>collation</code> property.</li>
+ * </ul>
+ * A column can be compared via a pre-normalized (upper-cased) shadow column by specifying
+ * <code>likeInsensitiveShadowColumns</code> table property e.g.
+ * <code>NAME=NAME_UPPER,TITLE=TITLE_UPPER</code>. The shadow column is used regardless of
+ * the mode.<br>
+ * If <code>prefixSearch</code> property is <code>true</code>, andXxxStartsWithInsensitive()
+ * methods are also added. They search the prefix by a range condition
+ * (<code>col &gt;= ? and col &lt; ?</code>) which can use an index.<br>
+ * If <code>indexReportFile</code> property is specified, the indexes required by the chosen
+ * mode are written to the file.
  * 
  * @author Iwao AVE!
  */
 public class CaseInsensitveLikePlugin extends PluginAdapter
 {
+	private static final String MODE_UPPER = "upper";
+
+	private static final String MODE_ILIKE = "ilike";
+
+	private static final String MODE_COLLATION = "collation";
+
+	private String mode;
+
+	private String collation;
+
+	private boolean prefixSearch;
+
+	private String indexReportFile;
+
+	/** Table name -> index definitions. */
+	private Map<String, List<String>> requiredIndexes = new LinkedHashMap<String, List<String>>();
 
 	public boolean validate(List<String> warnings)
 	{
+		mode = properties.getProperty("mode", MODE_UPPER).trim().toLowerCase();
+		collation = properties.getProperty("collation");
+		prefixSearch = "true".equalsIgnoreCase(properties.getProperty("prefixSearch"));
+		indexReportFile = properties.getProperty("indexReportFile");
+
+		if (!MODE_UPPER.equals(mode) && !MODE_ILIKE.equals(mode)
+			&& !MODE_COLLATION.equals(mode))
+		{
+			warnings.add("CaseInsensitveLikePlugin: unsupported mode '" + mode + "'");
+			return false;
+		}
+		if (MODE_COLLATION.equals(mode) && (collation == null || collation.trim().length() == 0))
+		{
+			warnings.add("CaseInsensitveLikePlugin: collation property is required for mode 'collation'");
+			return false;
+		}
 		return true;
 	}
 
@@ -58,9 +118,25 @@ public class CaseInsensitveLikePlugin extends PluginAdapter
 		return true;
 	}
 
+	@Override
+	public List<GeneratedJavaFile> contextGenerateAdditionalJavaFiles()
+	{
+		if (indexReportFile != null && indexReportFile.trim().length() > 0)
+		{
+			writeIndexReport(new File(indexReportFile.trim()));
+		}
+		return null;
+	}
+
 	private void modifyGeneratedCriteria(IntrospectedTable introspectedTable,
 		InnerClass innerClass)
 	{
+		Map<String, String> shadowColumns = getShadowColumns(introspectedTable);
+		String tableName = introspectedTable.getFullyQualifiedTable()
+			.getFullyQualifiedTableNameAtRuntime();
+		List<String> indexes = new ArrayList<String>();
+
+		boolean hasPrefixSearch = false;
 		for (IntrospectedColumn introspectedColumn : introspectedTable.getNonBLOBColumns())
 		{
 			if (!introspectedColumn.isJdbcCharacterColumn()
@@ -69,6 +145,16 @@ public class CaseInsensitveLikePlugin extends PluginAdapter
 				continue;
 			}
 
+			String shadowColumn = shadowColumns.get(introspectedColumn.getActualColumnName()
+				.toUpperCase());
+			String expression = getComparedExpression(introspectedTable, introspectedColumn,
+				shadowColumn);
+			// the shadow column holds upper-cased values
+			boolean upperCaseValue = shadowColumn != null || MODE_UPPER.equals(mode);
+			String value = upperCaseValue ? "value.toUpperCase()" : "value";
+			String operator = shadowColumn == null && MODE_ILIKE.equals(mode) ? " ilike"
+				: " like";
+
 			Method method = new Method();
 			method.setVisibility(JavaVisibility.PUBLIC);
 			method.addParameter(new Parameter(introspectedColumn.getFullyQualifiedJavaType(),
@@ -78,14 +164,18 @@ public class CaseInsensitveLikePlugin extends PluginAdapter
 			sb.append(introspectedColumn.getJavaProperty());
 			sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
 			sb.insert(0, "and");
+			String methodPrefix = sb.toString();
 			sb.append("LikeInsensitive");
 			method.setName(sb.toString());
 			method.setReturnType(FullyQualifiedJavaType.getCriteriaInstance());
 
 			sb.setLength(0);
-			sb.append("addCriterion(\"upper(");
-			sb.append(Ibatis2FormattingUtilities.getAliasedActualColumnName(introspectedColumn));
-			sb.append(") like\", value.toUpperCase(), \"");
+			sb.append("addCriterion(\"");
+			sb.append(expression);
+			sb.append(operator);
+			sb.append("\", ");
+			sb.append(value);
+			sb.append(", \"");
 			sb.append(introspectedColumn.getJavaProperty());
 			sb.append("\");");
 			method.addBodyLine("if (value == null){ return (Criteria)this; }");
@@ -93,6 +183,177 @@ public class CaseInsensitveLikePlugin extends PluginAdapter
 			method.addBodyLine("return (Criteria)this;");
 
 			innerClass.addMethod(method);
+
+			if (prefixSearch)
+			{
+				// upper(col) is used for the range as 'ilike' is not applicable
+				String rangeExpression = MODE_ILIKE.equals(mode) && shadowColumn == null ? "upper("
+					+ Ibatis2FormattingUtilities.getAliasedActualColumnName(introspectedColumn)
+					+ ")" : expression;
+				String rangeValue = MODE_COLLATION.equals(mode) && shadowColumn == null ? "value"
+					: "value.toUpperCase()";
+
+				method = new Method();
+				method.setVisibility(JavaVisibility.PUBLIC);
+				method.addParameter(new Parameter(
+					introspectedColumn.getFullyQualifiedJavaType(), "value"));
+				method.setName(methodPrefix + "StartsWithInsensitive");
+				method.setReturnType(FullyQualifiedJavaType.getCriteriaInstance());
+				method.addBodyLine("if (value == null){ return (Criteria)this; }");
+				method.addBodyLine("String lower = " + rangeValue + ";");
+				method.addBodyLine("addCriterion(\"" + rangeExpression + " >=\", lower, \""
+					+ introspectedColumn.getJavaProperty() + "\");");
+				method.addBodyLine("String upper = nextPrefix(lower);");
+				method.addBodyLine("if (upper != null){ addCriterion(\"" + rangeExpression
+					+ " <\", upper, \"" + introspectedColumn.getJavaProperty() + "\"); }");
+				method.addBodyLine("return (Criteria)this;");
+				innerClass.addMethod(method);
+				hasPrefixSearch = true;
+			}
+
+			indexes.add(getIndexDefinition(tableName, introspectedColumn, shadowColumn));
+		}
+
+		if (hasPrefixSearch)
+		{
+			addNextPrefixMethod(innerClass);
+		}
+		if (!indexes.isEmpty())
+		{
+			requiredIndexes.put(tableName, indexes);
+		}
+	}
+
+	/**
+	 * Adds a method that returns the smallest string greater than all the strings starting
+	 * with the given prefix, or <code>null</code> if there is no such string.
+	 */
+	private void addNextPrefixMethod(InnerClass innerClass)
+	{
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PROTECTED);
+		method.setStatic(true);
+		method.setReturnType(FullyQualifiedJavaType.getStringInstance());
+		method.setName("nextPrefix");
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getStringInstance(), "prefix"));
+		method.addBodyLine("for (int i = prefix.length() - 1; i >= 0; i--){");
+		method.addBodyLine("char c = prefix.charAt(i);");
+		method.addBodyLine("if (c != Character.MAX_VALUE){");
+		method.addBodyLine("return prefix.substring(0, i) + (char)(c + 1);");
+		method.addBodyLine("}");
+		method.addBodyLine("}");
+		method.addBodyLine("return null;");
+		innerClass.addMethod(method);
+	}
+
+	private String getComparedExpression(IntrospectedTable introspectedTable,
+		IntrospectedColumn introspectedColumn, String shadowColumn)
+	{
+		if (shadowColumn != null)
+		{
+			String alias = introspectedTable.getFullyQualifiedTable().getAlias();
+			if (alias != null && alias.length() > 0)
+				return alias + "." + shadowColumn;
+			return shadowColumn;
+		}
+
+		String columnName = Ibatis2FormattingUtilities.getAliasedActualColumnName(introspectedColumn);
+		if (MODE_ILIKE.equals(mode))
+			return columnName;
+		if (MODE_COLLATION.equals(mode))
+			return columnName + " collate " + collation.trim();
+		return "upper(" + columnName + ")";
+	}
+
+	private String getIndexDefinition(String tableName, IntrospectedColumn introspectedColumn,
+		String shadowColumn)
+	{
+		String columnName = introspectedColumn.getActualColumnName();
+		StringBuilder sb = new StringBuilder();
+		sb.append("create index ");
+		sb.append(tableName.replace('.', '_'));
+		sb.append('_');
+		sb.append(shadowColumn != null ? shadowColumn : columnName);
+		sb.append("_ci on ");
+		sb.append(tableName);
+		if (shadowColumn != null)
+		{
+			sb.append(" (").append(shadowColumn).append(")");
+		}
+		else if (MODE_ILIKE.equals(mode))
+		{
+			// trigram index for ilike, upper() for the prefix range
+			sb.append(" using gin (").append(columnName).append(" gin_trgm_ops)");
+			if (prefixSearch)
+			{
+				sb.append(";\ncreate index ");
+				sb.append(tableName.replace('.', '_'));
+				sb.append('_').append(columnName).append("_upper on ").append(tableName);
+				sb.append(" (upper(").append(columnName).append("))");
+			}
+		}
+		else if (MODE_COLLATION.equals(mode))
+		{
+			sb.append(" (").append(columnName).append(" collate ").append(collation.trim());
+			sb.append(")");
+		}
+		else
+		{
+			sb.append(" (upper(").append(columnName).append("))");
+		}
+		sb.append(';');
+		return sb.toString();
+	}
+
+	/**
+	 * Returns upper-cased column name -> shadow column name.
+	 */
+	private Map<String, String> getShadowColumns(IntrospectedTable introspectedTable)
+	{
+		Map<String, String> shadowColumns = new HashMap<String, String>();
+		String property = introspectedTable.getTableConfigurationProperty("likeInsensitiveShadowColumns");
+		if (property != null)
+		{
+			for (String pair : property.split(","))
+			{
+				int pos = pair.indexOf('=');
+				if (pos > 0)
+				{
+					shadowColumns.put(pair.substring(0, pos).trim().toUpperCase(),
+						pair.substring(pos + 1).trim());
+				}
+			}
+		}
+		return shadowColumns;
+	}
+
+	private void writeIndexReport(File file)
+	{
+		try
+		{
+			Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			try
+			{
+				writer.write("-- Indexes required by CaseInsensitveLikePlugin (mode: " + mode
+					+ ")\n");
+				for (Map.Entry<String, List<String>> entry : requiredIndexes.entrySet())
+				{
+					writer.write("\n-- " + entry.getKey() + "\n");
+					for (String index : entry.getValue())
+					{
+						writer.write(index);
+						writer.write('\n');
+					}
+				}
+			}
+			finally
+			{
+				writer.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Failed to write " + file, e);
 		}
 	}
 
@@ -0,0 +1,308 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.List;
+
+import org.mybatis.generator.api.IntrospectedColumn;
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.Field;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.InnerEnum;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.Parameter;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+import org.mybatis.generator.api.dom.xml.Attribute;
+import org.mybatis.generator.api.dom.xml.Element;
+import org.mybatis.generator.api.dom.xml.TextElement;
+import org.mybatis.generator.api.dom.xml.XmlElement;
+import org.mybatis.generator.codegen.mybatis3.MyBatis3FormattingUtilities;
+
+/**
+ * This plugin adds includeColumns(Column...) and excludeColumns(Column...) methods to the
+ * example class so that selectByExample and selectByExampleWithBLOBs fetch only the columns
+ * the caller uses.<br>
+ * <code>Column</code> is an enum generated in the example class which has a constant for each
+ * column. The properties of the columns that are not selected are left <code>null</code>.<br>
+ * selectByExample never selects BLOB columns as its result map does not have them, and selects
+ * the default column list if only BLOB columns are selected.
+ */
+public class ColumnProjectionPlugin extends PluginAdapter
+{
+	private static final String COLUMN = "Column";
+
+	private static final String SELECTED_COLUMNS = "selectedColumns";
+
+	public boolean validate(List<String> warnings)
+	{
+		return true;
+	}
+
+	@Override
+	public boolean modelExampleClassGenerated(TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		FullyQualifiedJavaType columnType = new FullyQualifiedJavaType(COLUMN);
+		FullyQualifiedJavaType listType = new FullyQualifiedJavaType("java.util.List<" + COLUMN
+			+ ">");
+		FullyQualifiedJavaType stringType = FullyQualifiedJavaType.getStringInstance();
+		FullyQualifiedJavaType booleanType = FullyQualifiedJavaType.getBooleanPrimitiveInstance();
+
+		InnerEnum columnEnum = new InnerEnum(columnType);
+		columnEnum.setVisibility(JavaVisibility.PUBLIC);
+		for (IntrospectedColumn column : introspectedTable.getAllColumns())
+		{
+			StringBuilder sb = new StringBuilder();
+			sb.append(toConstantName(column.getJavaProperty()));
+			sb.append("(\"");
+			sb.append(MyBatis3FormattingUtilities.getSelectListPhrase(column).replace("\\", "\\\\")
+				.replace("\"", "\\\""));
+			sb.append("\", ");
+			sb.append(column.isBLOBColumn());
+			sb.append(")");
+			columnEnum.addEnumConstant(sb.toString());
+		}
+
+		Field field = new Field();
+		field.setVisibility(JavaVisibility.PRIVATE);
+		field.setFinal(true);
+		field.setType(stringType);
+		field.setName("selectPhrase");
+		columnEnum.addField(field);
+
+		field = new Field();
+		field.setVisibility(JavaVisibility.PRIVATE);
+		field.setFinal(true);
+		field.setType(booleanType);
+		field.setName("blob");
+		columnEnum.addField(field);
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PRIVATE);
+		method.setConstructor(true);
+		method.setName(COLUMN);
+		method.addParameter(new Parameter(stringType, "selectPhrase"));
+		method.addParameter(new Parameter(booleanType, "blob"));
+		method.addBodyLine("this.selectPhrase = selectPhrase;");
+		method.addBodyLine("this.blob = blob;");
+		columnEnum.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(stringType);
+		method.setName("getSelectPhrase");
+		method.addBodyLine("return selectPhrase;");
+		columnEnum.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(booleanType);
+		method.setName("isBlob");
+		method.addBodyLine("return blob;");
+		columnEnum.addMethod(method);
+
+		topLevelClass.addInnerEnum(columnEnum);
+
+		// null means the default column list
+		field = new Field();
+		field.setVisibility(JavaVisibility.PROTECTED);
+		field.setType(listType);
+		field.setName(SELECTED_COLUMNS);
+		context.getCommentGenerator().addFieldComment(field, introspectedTable);
+		topLevelClass.addField(field);
+
+		topLevelClass.addImportedType(FullyQualifiedJavaType.getNewListInstance());
+		topLevelClass.addImportedType(FullyQualifiedJavaType.getNewArrayListInstance());
+		topLevelClass.addImportedType("java.util.Arrays");
+		topLevelClass.addImportedType("java.util.EnumSet");
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(topLevelClass.getType());
+		method.setName("includeColumns");
+		method.addParameter(varargsParameter(columnType, "columns"));
+		method.addBodyLine("if (columns.length == 0) {");
+		method.addBodyLine("throw new IllegalArgumentException(\"No column to select\");");
+		method.addBodyLine("}");
+		method.addBodyLine("// EnumSet removes duplicates and keeps the declaration order");
+		method.addBodyLine(SELECTED_COLUMNS + " = new ArrayList<" + COLUMN
+			+ ">(EnumSet.copyOf(Arrays.asList(columns)));");
+		method.addBodyLine("return this;");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(topLevelClass.getType());
+		method.setName("excludeColumns");
+		method.addParameter(varargsParameter(columnType, "columns"));
+		method.addBodyLine("EnumSet<" + COLUMN + "> set = EnumSet.allOf(" + COLUMN + ".class);");
+		method.addBodyLine("set.removeAll(Arrays.asList(columns));");
+		method.addBodyLine("if (set.isEmpty()) {");
+		method.addBodyLine("throw new IllegalArgumentException(\"No column to select\");");
+		method.addBodyLine("}");
+		method.addBodyLine(SELECTED_COLUMNS + " = new ArrayList<" + COLUMN + ">(set);");
+		method.addBodyLine("return this;");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(listType);
+		method.setName("getSelectedColumns");
+		method.addBodyLine("return " + SELECTED_COLUMNS + ";");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		if (introspectedTable.hasBLOBColumns())
+		{
+			// selectByExample can't select only BLOB columns
+			method = new Method();
+			method.setVisibility(JavaVisibility.PUBLIC);
+			method.setReturnType(booleanType);
+			method.setName("isNonBLOBColumnSelected");
+			method.addBodyLine("if (" + SELECTED_COLUMNS + " != null) {");
+			method.addBodyLine("for (" + COLUMN + " column : " + SELECTED_COLUMNS + ") {");
+			method.addBodyLine("if (!column.isBlob()) {");
+			method.addBodyLine("return true;");
+			method.addBodyLine("}");
+			method.addBodyLine("}");
+			method.addBodyLine("}");
+			method.addBodyLine("return false;");
+			context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+			topLevelClass.addMethod(method);
+		}
+
+		for (Method m : topLevelClass.getMethods())
+		{
+			if ("clear".equals(m.getName()) && m.getParameters().isEmpty())
+				m.addBodyLine(SELECTED_COLUMNS + " = null;");
+		}
+		return true;
+	}
+
+	@Override
+	public boolean sqlMapSelectByExampleWithBLOBsElementGenerated(XmlElement element,
+		IntrospectedTable introspectedTable)
+	{
+		replaceColumnList(element, introspectedTable, true);
+		return true;
+	}
+
+	@Override
+	public boolean sqlMapSelectByExampleWithoutBLOBsElementGenerated(XmlElement element,
+		IntrospectedTable introspectedTable)
+	{
+		replaceColumnList(element, introspectedTable, false);
+		return true;
+	}
+
+	/**
+	 * Replaces the column list(s) with
+	 * <code>&lt;choose&gt;&lt;when test="selectedColumns != null"&gt;...</code>.
+	 */
+	protected void replaceColumnList(XmlElement element, IntrospectedTable introspectedTable,
+		boolean withBLOBs)
+	{
+		List<Element> elements = element.getElements();
+		int first = -1;
+		int last = -1;
+		for (int i = 0; i < elements.size(); i++)
+		{
+			Element elem = elements.get(i);
+			if (!(elem instanceof XmlElement) || !"include".equals(((XmlElement)elem).getName()))
+				continue;
+			for (Attribute attribute : ((XmlElement)elem).getAttributes())
+			{
+				if (!"refid".equals(attribute.getName()))
+					continue;
+				if (introspectedTable.getBaseColumnListId().equals(attribute.getValue()))
+					first = last = i;
+				else if (introspectedTable.getBlobColumnListId().equals(attribute.getValue()))
+					last = i;
+			}
+		}
+		if (first < 0)
+			return;
+
+		XmlElement foreachElement = new XmlElement("foreach");
+		foreachElement.addAttribute(new Attribute("collection", SELECTED_COLUMNS));
+		foreachElement.addAttribute(new Attribute("item", "column"));
+		foreachElement.addAttribute(new Attribute("separator", ","));
+		if (withBLOBs)
+		{
+			foreachElement.addElement(new TextElement("${column.selectPhrase}"));
+		}
+		else
+		{
+			XmlElement ifElement = new XmlElement("if");
+			ifElement.addAttribute(new Attribute("test", "!column.blob"));
+			ifElement.addElement(new TextElement("${column.selectPhrase}"));
+			foreachElement.addElement(ifElement);
+		}
+
+		XmlElement whenElement = new XmlElement("when");
+		if (withBLOBs || !introspectedTable.hasBLOBColumns())
+			whenElement.addAttribute(new Attribute("test", SELECTED_COLUMNS + " != null"));
+		else
+			whenElement.addAttribute(new Attribute("test", "nonBLOBColumnSelected"));
+		whenElement.addElement(foreachElement);
+
+		XmlElement otherwiseElement = new XmlElement("otherwise");
+		for (int i = first; i <= last; i++)
+		{
+			otherwiseElement.addElement(elements.get(first));
+			elements.remove(first);
+		}
+
+		XmlElement chooseElement = new XmlElement("choose");
+		chooseElement.addElement(whenElement);
+		chooseElement.addElement(otherwiseElement);
+		elements.add(first, chooseElement);
+	}
+
+	private Parameter varargsParameter(FullyQualifiedJavaType type, String name)
+	{
+		// MBG 1.3.1 has no way to declare a varargs parameter.
+		return new Parameter(type, name)
+		{
+			@Override
+			public String getFormattedContent()
+			{
+				return getType().getShortName() + "... " + getName();
+			}
+		};
+	}
+
+	/**
+	 * subId -> SUB_ID
+	 */
+	private String toConstantName(String property)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < property.length(); i++)
+		{
+			char c = property.charAt(i);
+			if (Character.isUpperCase(c) && i > 0)
+				sb.append('_');
+			sb.append(Character.toUpperCase(c));
+		}
+		return sb.toString();
+	}
+}
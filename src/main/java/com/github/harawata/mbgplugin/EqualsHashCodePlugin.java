@@ -16,15 +16,25 @@
 
 package com.github.harawata.mbgplugin;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.mybatis.generator.api.GeneratedJavaFile;
+import org.mybatis.generator.api.IntrospectedColumn;
 import org.mybatis.generator.api.IntrospectedTable;
 import org.mybatis.generator.api.PluginAdapter;
 import org.mybatis.generator.api.dom.OutputUtilities;
 import org.mybatis.generator.api.dom.java.Field;
 import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
 import org.mybatis.generator.api.dom.java.InnerClass;
+import org.mybatis.generator.api.dom.java.InnerEnum;
 import org.mybatis.generator.api.dom.java.JavaVisibility;
 import org.mybatis.generator.api.dom.java.Method;
 import org.mybatis.generator.api.dom.java.Parameter;
@@ -34,15 +44,86 @@ import org.mybatis.generator.api.dom.java.TopLevelClass;
  * This plugin adds equals() and hashCode() methods to the generated java classes.<br>
  * Unlike the default(bundled) plugin, this plugin generates these methods for examples classes
  * as well.<br>
- * It could be useful when you use some kind of mocking framework to write unit tests.
+ * It could be useful when you use some kind of mocking framework to write unit tests.<br>
+ * <br>
+ * Model classes of the tables listed in the <code>cacheHashCode</code> property
+ * (comma-separated table names, or <code>*</code> for all tables) cache the computed hash code
+ * in a transient field, which is useful when the records are used as keys of hash maps.<br>
+ * Every setter resets the cached value. If the table is configured immutable, the hash code is
+ * computed in the constructor instead.<br>
+ * Classes whose fields are all final (e.g. the variant generated by ImmutableModelPlugin)
+ * always compute the hash code in the constructor.<br>
+ * <br>
+ * Array fields (e.g. BLOB columns mapped to <code>byte[]</code>) are compared by their
+ * contents. To avoid hashing huge BLOBs entirely, set <code>arrayHashCodeLimit</code> property
+ * to the max number of elements used to compute the hash code.<br>
+ * The fields are compared in the order of their cost: primitives, primary key columns, other
+ * columns, strings and then BLOB columns.<br>
+ * <br>
+ * When <code>shapeKey</code> property is set to true, example classes get shapeKey() method
+ * which returns a 64-bit fingerprint of the query shape, i.e. the conditions, the sizes of the
+ * list values, orderByClause, distinct and the state added by the other plugins (e.g. lock
+ * mode), but not the bound values. It can be used to group metrics or to key caches by the
+ * shape of the statement without rendering SQL.
  * 
  * @author Iwao AVE!
  */
 public class EqualsHashCodePlugin extends PluginAdapter
 {
+	private static final String CACHED_HASH_CODE_FIELD = "cachedHashCode";
+
+	private static final String COMPUTE_HASH_CODE_METHOD = "computeHashCode";
+
+	private static final String SHAPE_KEY_METHOD = "shapeKey";
+
+	private static final String SHAPE_MIX_METHOD = "mixShape";
+
+	private static final String SHAPE_OF_METHOD = "shapeOf";
+
+	private Set<String> cachedTables;
+
+	private boolean cacheAllTables;
+
+	private int arrayHashCodeLimit;
+
+	private boolean shapeKey;
+
+	/** Example classes whose shapeKey() bodies are generated after the other plugins. */
+	private Map<IntrospectedTable, TopLevelClass> shapeKeyClasses =
+		new HashMap<IntrospectedTable, TopLevelClass>();
 
 	public boolean validate(List<String> warnings)
 	{
+		arrayHashCodeLimit = -1;
+		String limit = properties.getProperty("arrayHashCodeLimit");
+		if (limit != null && limit.trim().length() > 0)
+		{
+			try
+			{
+				arrayHashCodeLimit = Integer.parseInt(limit.trim());
+			}
+			catch (NumberFormatException e)
+			{
+				warnings.add("EqualsHashCodePlugin: invalid arrayHashCodeLimit '" + limit + "'");
+				return false;
+			}
+		}
+
+		shapeKey = "true".equalsIgnoreCase(properties.getProperty("shapeKey", "false").trim());
+
+		cachedTables = new HashSet<String>();
+		String tables = properties.getProperty("cacheHashCode");
+		if (tables != null)
+		{
+			for (String table : tables.split(","))
+			{
+				table = table.trim();
+				if ("*".equals(table))
+					cacheAllTables = true;
+				else if (table.length() > 0)
+					cachedTables.add(table.toUpperCase());
+			}
+		}
 		return true;
 	}
 
@@ -51,7 +132,7 @@ public class EqualsHashCodePlugin extends PluginAdapter
 		IntrospectedTable introspectedTable)
 	{
 		generateEquals(introspectedTable, topLevelClass);
-		generateHashCode(introspectedTable, topLevelClass);
+		generateModelHashCode(introspectedTable, topLevelClass);
 		return true;
 	}
 
@@ -73,15 +154,39 @@ public class EqualsHashCodePlugin extends PluginAdapter
 			}
 		}
 
+		if (shapeKey)
+		{
+			// The bodies are generated in contextGenerateAdditionalJavaFiles() so that the
+			// fields added by the plugins configured after this one are included.
+			addShapeKeyMethod(introspectedTable, topLevelClass);
+			for (InnerClass innerClass : innerClasses)
+			{
+				String name = innerClass.getType().getShortName();
+				if ("Criterion".equals(name) || "GeneratedCriteria".equals(name))
+					addShapeKeyMethod(introspectedTable, innerClass);
+			}
+			shapeKeyClasses.put(introspectedTable, topLevelClass);
+		}
+
 		return true;
 	}
 
+	@Override
+	public List<GeneratedJavaFile> contextGenerateAdditionalJavaFiles(
+		IntrospectedTable introspectedTable)
+	{
+		TopLevelClass topLevelClass = shapeKeyClasses.remove(introspectedTable);
+		if (topLevelClass != null)
+			generateShapeKey(topLevelClass);
+		return null;
+	}
+
 	@Override
 	public boolean modelPrimaryKeyClassGenerated(TopLevelClass topLevelClass,
 		IntrospectedTable introspectedTable)
 	{
 		generateEquals(introspectedTable, topLevelClass);
-		generateHashCode(introspectedTable, topLevelClass);
+		generateModelHashCode(introspectedTable, topLevelClass);
 		return true;
 	}
 
@@ -90,17 +195,187 @@ public class EqualsHashCodePlugin extends PluginAdapter
 		IntrospectedTable introspectedTable)
 	{
 		generateEquals(introspectedTable, topLevelClass);
-		generateHashCode(introspectedTable, topLevelClass);
+		generateModelHashCode(introspectedTable, topLevelClass);
+		return true;
+	}
+
+	@Override
+	public boolean modelSetterMethodGenerated(Method method, TopLevelClass topLevelClass,
+		IntrospectedColumn introspectedColumn, IntrospectedTable introspectedTable,
+		ModelClassType modelClassType)
+	{
+		if (isHashCodeCached(introspectedTable))
+		{
+			method.addBodyLine(CACHED_HASH_CODE_FIELD + " = 0;");
+		}
 		return true;
 	}
 
+	private boolean isHashCodeCached(IntrospectedTable introspectedTable)
+	{
+		return cacheAllTables
+			|| cachedTables.contains(introspectedTable.getFullyQualifiedTable()
+				.getIntrospectedTableName()
+				.toUpperCase());
+	}
+
+	/**
+	 * The cache field and the caching hashCode() are added to the root of the generated model
+	 * class hierarchy (primary key class, base record class, record with BLOBs class) only.
+	 * Subclasses just override computeHashCode().
+	 */
+	private boolean isRootModelClass(IntrospectedTable introspectedTable,
+		TopLevelClass topLevelClass)
+	{
+		String type = topLevelClass.getType().getFullyQualifiedName();
+		if (introspectedTable.getRules().generatePrimaryKeyClass())
+			return type.equals(introspectedTable.getPrimaryKeyType());
+		if (introspectedTable.getRules().generateBaseRecordClass())
+			return type.equals(introspectedTable.getBaseRecordType());
+		return true;
+	}
+
+	private void generateModelHashCode(IntrospectedTable introspectedTable,
+		TopLevelClass topLevelClass)
+	{
+		if (hasOnlyFinalFields(topLevelClass))
+		{
+			generatePrecomputedHashCode(introspectedTable, topLevelClass);
+			return;
+		}
+
+		if (!isHashCodeCached(introspectedTable))
+		{
+			generateHashCode(introspectedTable, topLevelClass);
+			return;
+		}
+
+		boolean root = isRootModelClass(introspectedTable, topLevelClass);
+
+		Method method = createHashCodeMethod(introspectedTable, topLevelClass,
+			COMPUTE_HASH_CODE_METHOD, root ? "super.hashCode()" : "super."
+				+ COMPUTE_HASH_CODE_METHOD + "()");
+		method.setVisibility(JavaVisibility.PROTECTED);
+		if (root)
+		{
+			method.getAnnotations().clear();
+		}
+		topLevelClass.addMethod(method);
+
+		if (root)
+		{
+			// MBG 1.3.1 has no way to declare a transient field.
+			Field field = new Field();
+			field.setVisibility(JavaVisibility.PROTECTED);
+			field.setType(new FullyQualifiedJavaType("transient int"));
+			field.setName(CACHED_HASH_CODE_FIELD);
+			context.getCommentGenerator().addFieldComment(field, introspectedTable);
+			topLevelClass.addField(field);
+
+			method = new Method();
+			method.setVisibility(JavaVisibility.PUBLIC);
+			method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+			method.setName("hashCode");
+			if (introspectedTable.isJava5Targeted())
+			{
+				method.addAnnotation("@Override");
+			}
+			context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+			method.addBodyLine("int h = " + CACHED_HASH_CODE_FIELD + ";");
+			method.addBodyLine("if (h == 0) {");
+			method.addBodyLine("h = " + COMPUTE_HASH_CODE_METHOD + "();");
+			method.addBodyLine(CACHED_HASH_CODE_FIELD + " = h;");
+			method.addBodyLine("}");
+			method.addBodyLine("return h;");
+			topLevelClass.addMethod(method);
+		}
+
+		if (introspectedTable.isImmutable())
+		{
+			// compute only once, in the constructor of the actual class
+			String shortName = topLevelClass.getType().getShortName();
+			for (Method m : topLevelClass.getMethods())
+			{
+				if (m.isConstructor())
+				{
+					m.addBodyLine("if (getClass() == " + shortName + ".class) { "
+						+ CACHED_HASH_CODE_FIELD + " = " + COMPUTE_HASH_CODE_METHOD + "(); }");
+				}
+			}
+		}
+	}
+
+	/**
+	 * The fields of a class like the one generated by ImmutableModelPlugin never change, so the
+	 * hash code is computed in the constructor(s) and stored in a final field.
+	 */
+	private void generatePrecomputedHashCode(IntrospectedTable introspectedTable,
+		TopLevelClass topLevelClass)
+	{
+		Method method = createHashCodeMethod(introspectedTable, topLevelClass,
+			COMPUTE_HASH_CODE_METHOD, null);
+		method.setVisibility(JavaVisibility.PRIVATE);
+		method.getAnnotations().clear();
+		topLevelClass.addMethod(method);
+
+		// transient so that the other plugins (e.g. ToStringPlugin) skip it
+		Field field = new Field();
+		field.setVisibility(JavaVisibility.PRIVATE);
+		field.setFinal(true);
+		field.setType(new FullyQualifiedJavaType("transient int"));
+		field.setName(CACHED_HASH_CODE_FIELD);
+		context.getCommentGenerator().addFieldComment(field, introspectedTable);
+		topLevelClass.addField(field);
+
+		for (Method m : topLevelClass.getMethods())
+		{
+			if (m.isConstructor())
+				m.addBodyLine(CACHED_HASH_CODE_FIELD + " = " + COMPUTE_HASH_CODE_METHOD + "();");
+		}
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName("hashCode");
+		if (introspectedTable.isJava5Targeted())
+		{
+			method.addAnnotation("@Override");
+		}
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		method.addBodyLine("return " + CACHED_HASH_CODE_FIELD + ";");
+		topLevelClass.addMethod(method);
+	}
+
+	private boolean hasOnlyFinalFields(TopLevelClass topLevelClass)
+	{
+		if (hasSuperClass(topLevelClass))
+			return false;
+		boolean hasField = false;
+		for (Field field : topLevelClass.getFields())
+		{
+			if (field.isStatic())
+				continue;
+			if (!field.isFinal())
+				return false;
+			hasField = true;
+		}
+		return hasField;
+	}
+
 	private void generateHashCode(IntrospectedTable introspectedTable, InnerClass innerClass)
+	{
+		innerClass.addMethod(createHashCodeMethod(introspectedTable, innerClass, "hashCode",
+			"super.hashCode()"));
+	}
+
+	private Method createHashCodeMethod(IntrospectedTable introspectedTable,
+		InnerClass innerClass, String methodName, String superCall)
 	{
 		Iterator<Field> iter;
 		Method method = new Method();
 		method.setVisibility(JavaVisibility.PUBLIC);
 		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
-		method.setName("hashCode");
+		method.setName(methodName);
 		if (introspectedTable.isJava5Targeted())
 		{
 			method.addAnnotation("@Override");
@@ -111,20 +386,36 @@ public class EqualsHashCodePlugin extends PluginAdapter
 			context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
 		}
 
-		method.addBodyLine("final int prime = 17;");
+		// the local variables must not hide the fields
+		Set<String> names = new HashSet<String>();
+		for (Field field : innerClass.getFields())
+		{
+			names.add(field.getName());
+		}
+		String prime = unusedName("prime", names);
+		String result = unusedName("result", names);
+		String bits = unusedName("bits", names);
+		String limit = unusedName("limit", names);
+		String index = unusedName("i", names);
+		String mix = result + " = " + prime + " * " + result + " + ";
+
+		method.addBodyLine("final int " + prime + " = 17;");
 		if (hasSuperClass(innerClass))
-			method.addBodyLine("int result = super.hashCode();");
+			method.addBodyLine("int " + result + " = " + superCall + ";");
 		else
-			method.addBodyLine("int result = 1;");
+			method.addBodyLine("int " + result + " = 1;");
 
 		StringBuilder sb = new StringBuilder();
 
 		sb.setLength(0);
 		boolean bitsDeclared = false;
+		boolean limitDeclared = false;
 		iter = innerClass.getFields().iterator();
 		while (iter.hasNext())
 		{
 			Field field = iter.next();
+			if (field.isStatic())
+				continue;
 			sb.setLength(0);
 
 			String property = field.getName();
@@ -134,20 +425,20 @@ public class EqualsHashCodePlugin extends PluginAdapter
 				String typeStr = type.getFullyQualifiedName();
 				if ("int".equals(typeStr))
 				{
-					sb.append("result = prime * result + ");
+					sb.append(mix);
 					sb.append(property);
 					sb.append(";");
 				}
 				else if ("byte".equals(typeStr) || "char".equals(typeStr)
 					|| "short".equals(typeStr))
 				{
-					sb.append("result = prime * result + (int)");
+					sb.append(mix).append("(int)");
 					sb.append(property);
 					sb.append(";");
 				}
 				else if ("long".equals(typeStr))
 				{
-					sb.append("result = prime * result + (int)(");
+					sb.append(mix).append("(int)(");
 					sb.append(property);
 					sb.append(" ^ (");
 					sb.append(property);
@@ -155,7 +446,7 @@ public class EqualsHashCodePlugin extends PluginAdapter
 				}
 				else if ("float".equals(typeStr))
 				{
-					sb.append("result = prime * result + Float.floatToIntBits(");
+					sb.append(mix).append("Float.floatToIntBits(");
 					sb.append(property);
 					sb.append(");");
 				}
@@ -166,21 +457,65 @@ public class EqualsHashCodePlugin extends PluginAdapter
 						sb.append("long ");
 						bitsDeclared = true;
 					}
-					sb.append("bits = Double.doubleToLongBits(");
+					sb.append(bits).append(" = Double.doubleToLongBits(");
 					sb.append(property);
 					sb.append(");");
-					sb.append("result = prime * result + (int)(bits ^ (bits >>> 32));");
+					sb.append(mix).append("(int)(").append(bits).append(" ^ (").append(bits)
+						.append(" >>> 32));");
 				}
 				else if ("boolean".equals(typeStr))
 				{
-					sb.append("result = prime * result + (");
+					sb.append(mix).append("(");
 					sb.append(property);
 					sb.append(" ? 1 : 0);");
 				}
 			}
+			else if (isArray(type))
+			{
+				if (arrayHashCodeLimit < 0 || !isIntegralArray(type))
+				{
+					sb.append(mix);
+					sb.append(arraysClass(innerClass));
+					sb.append(".hashCode(");
+					sb.append(property);
+					sb.append(");");
+				}
+				else
+				{
+					// hash the length and the leading elements only
+					if (!limitDeclared)
+					{
+						sb.append("int ");
+						limitDeclared = true;
+					}
+					sb.append(limit).append(" = null == ");
+					sb.append(property);
+					sb.append(" ? -1 : Math.min(");
+					sb.append(property);
+					sb.append(".length, ");
+					sb.append(arrayHashCodeLimit);
+					sb.append(");");
+					method.addBodyLine(sb.toString());
+
+					sb.setLength(0);
+					sb.append(mix).append("(null == ");
+					sb.append(property);
+					sb.append(" ? 0 : ");
+					sb.append(property);
+					sb.append(".length);");
+					method.addBodyLine(sb.toString());
+
+					sb.setLength(0);
+					sb.append("for (int ").append(index).append(" = 0; ").append(index)
+						.append(" < ").append(limit).append("; ").append(index).append("++) { ");
+					sb.append(mix);
+					sb.append(property);
+					sb.append("[").append(index).append("]; }");
+				}
+			}
 			else
 			{
-				sb.append("result = prime * result + (null == ");
+				sb.append(mix).append("(null == ");
 				sb.append(property);
 				sb.append(" ? 0 : ");
 				sb.append(property);
@@ -190,11 +525,189 @@ public class EqualsHashCodePlugin extends PluginAdapter
 			method.addBodyLine(sb.toString());
 		}
 
-		method.addBodyLine("return result;");
+		method.addBodyLine("return " + result + ";");
+
+		return method;
+	}
 
+	private String unusedName(String name, Set<String> names)
+	{
+		while (names.contains(name))
+		{
+			name = name + "_";
+		}
+		return name;
+	}
+
+	private void addShapeKeyMethod(IntrospectedTable introspectedTable, InnerClass innerClass)
+	{
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(new FullyQualifiedJavaType("long"));
+		method.setName(SHAPE_KEY_METHOD);
+		if (innerClass instanceof TopLevelClass)
+		{
+			context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		}
 		innerClass.addMethod(method);
 	}
 
+	private void generateShapeKey(TopLevelClass topLevelClass)
+	{
+		Set<String> enumTypes = new HashSet<String>();
+		for (InnerEnum innerEnum : topLevelClass.getInnerEnums())
+		{
+			enumTypes.add(innerEnum.getType().getShortName());
+		}
+
+		generateShapeKeyBody(topLevelClass, enumTypes);
+		for (InnerClass innerClass : topLevelClass.getInnerClasses())
+		{
+			String name = innerClass.getType().getShortName();
+			if ("Criterion".equals(name) || "GeneratedCriteria".equals(name))
+				generateShapeKeyBody(innerClass, enumTypes);
+		}
+
+		// FNV-1a step
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PRIVATE);
+		method.setStatic(true);
+		method.setReturnType(new FullyQualifiedJavaType("long"));
+		method.setName(SHAPE_MIX_METHOD);
+		method.addParameter(new Parameter(new FullyQualifiedJavaType("long"), "h"));
+		method.addParameter(new Parameter(new FullyQualifiedJavaType("long"), "v"));
+		method.addBodyLine("return (h ^ v) * 0x100000001b3L;");
+		topLevelClass.addMethod(method);
+
+		// bound values contribute only their null-ness and the sizes of (nested) lists
+		method = new Method();
+		method.setVisibility(JavaVisibility.PRIVATE);
+		method.setStatic(true);
+		method.setReturnType(new FullyQualifiedJavaType("long"));
+		method.setName(SHAPE_OF_METHOD);
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getObjectInstance(), "value"));
+		topLevelClass.addImportedType(FullyQualifiedJavaType.getNewListInstance());
+		method.addBodyLine("if (value instanceof List) {");
+		method.addBodyLine("List<?> list = (List<?>) value;");
+		method.addBodyLine("long h = " + SHAPE_MIX_METHOD + "(3L, list.size());");
+		method.addBodyLine("if (!list.isEmpty() && (list.get(0) instanceof List"
+			+ " || list.get(0) instanceof Object[])) {");
+		method.addBodyLine("for (Object element : list) {");
+		method.addBodyLine("h = " + SHAPE_MIX_METHOD + "(h, " + SHAPE_OF_METHOD + "(element));");
+		method.addBodyLine("}");
+		method.addBodyLine("}");
+		method.addBodyLine("return h;");
+		method.addBodyLine("}");
+		method.addBodyLine("if (value instanceof Object[]) {");
+		method.addBodyLine("return " + SHAPE_MIX_METHOD + "(2L, ((Object[]) value).length);");
+		method.addBodyLine("}");
+		method.addBodyLine("return value == null ? 0L : 1L;");
+		topLevelClass.addMethod(method);
+	}
+
+	private void generateShapeKeyBody(InnerClass innerClass, Set<String> enumTypes)
+	{
+		Method method = null;
+		for (Method m : innerClass.getMethods())
+		{
+			if (SHAPE_KEY_METHOD.equals(m.getName()) && m.getParameters().isEmpty())
+				method = m;
+		}
+		if (method == null)
+			return;
+
+		method.addBodyLine("long h = 0xcbf29ce484222325L;");
+		for (Field field : innerClass.getFields())
+		{
+			if (field.isStatic())
+				continue;
+			String property = field.getName();
+			FullyQualifiedJavaType type = field.getType();
+			String typeStr = type.getFullyQualifiedName();
+			StringBuilder sb = new StringBuilder();
+			sb.append("h = ").append(SHAPE_MIX_METHOD).append("(h, ");
+			if ("boolean".equals(typeStr))
+			{
+				sb.append(property).append(" ? 1L : 2L");
+			}
+			else if (type.isPrimitive() && !"float".equals(typeStr) && !"double".equals(typeStr))
+			{
+				// e.g. lockWaitSeconds, which is embedded in the statement
+				sb.append(property);
+			}
+			else if ("java.lang.String".equals(typeStr))
+			{
+				sb.append(property).append(" == null ? 0L : ").append(property).append(
+					".hashCode()");
+			}
+			else if (enumTypes.contains(type.getShortName()))
+			{
+				sb.append(property).append(" == null ? 0L : ").append(property).append(
+					".ordinal() + 1");
+			}
+			else if (getEnumElementType(type, enumTypes) != null)
+			{
+				// e.g. selectedColumns, which is embedded in the statement
+				method.addBodyLine("h = " + SHAPE_MIX_METHOD + "(h, " + property
+					+ " == null ? 0L : " + property + ".size() + 1L);");
+				method.addBodyLine("if (" + property + " != null) {");
+				method.addBodyLine("for (" + getEnumElementType(type, enumTypes) + " element : "
+					+ property + ") {");
+				method.addBodyLine("h = " + SHAPE_MIX_METHOD + "(h, element.ordinal());");
+				method.addBodyLine("}");
+				method.addBodyLine("}");
+				continue;
+			}
+			else if (getShapeKeyElementType(type) != null)
+			{
+				method.addBodyLine("h = " + SHAPE_MIX_METHOD + "(h, " + property + ".size());");
+				sb.setLength(0);
+				sb.append("for (").append(getShapeKeyElementType(type));
+				sb.append(" element : ").append(property).append(") {");
+				method.addBodyLine(sb.toString());
+				method.addBodyLine("h = " + SHAPE_MIX_METHOD + "(h, element." + SHAPE_KEY_METHOD
+					+ "());");
+				method.addBodyLine("}");
+				continue;
+			}
+			else
+			{
+				sb.append(SHAPE_OF_METHOD).append("(").append(property).append(")");
+			}
+			sb.append(");");
+			method.addBodyLine(sb.toString());
+		}
+		method.addBodyLine("return h;");
+	}
+
+	/**
+	 * Returns the element type if the type is a list of Criteria or Criterion.
+	 */
+	private String getShapeKeyElementType(FullyQualifiedJavaType type)
+	{
+		String name = type.getShortName();
+		if ("List<Criteria>".equals(name))
+			return "Criteria";
+		if ("List<Criterion>".equals(name))
+			return "Criterion";
+		return null;
+	}
+
+	/**
+	 * Returns the element type if the type is a list of an enum of the example class.
+	 */
+	private String getEnumElementType(FullyQualifiedJavaType type, Set<String> enumTypes)
+	{
+		String name = type.getShortName();
+		if (name.startsWith("List<") && name.endsWith(">"))
+		{
+			String elementType = name.substring(5, name.length() - 1);
+			if (enumTypes.contains(elementType))
+				return elementType;
+		}
+		return null;
+	}
+
 	private void generateEquals(IntrospectedTable introspectedTable, InnerClass innerClass)
 	{
 		Method method;
@@ -230,16 +743,24 @@ public class EqualsHashCodePlugin extends PluginAdapter
 		method.addBodyLine(sb.toString());
 		method.addBodyLine("return false;");
 
+		// the local variable must not hide the fields
+		Set<String> names = new HashSet<String>();
+		for (Field field : innerClass.getFields())
+		{
+			names.add(field.getName());
+		}
+		String other = unusedName("other", names);
+
 		sb.setLength(0);
 		sb.append(innerClass.getType().getShortName());
-		sb.append(" other = (");
+		sb.append(" ").append(other).append(" = (");
 		sb.append(innerClass.getType().getShortName());
 		sb.append(") that;");
 		method.addBodyLine(sb.toString());
 
 		sb.setLength(0);
 		first = true;
-		iter = innerClass.getFields().iterator();
+		iter = sortByComparisonCost(introspectedTable, innerClass).iterator();
 		while (iter.hasNext())
 		{
 			Field field = iter.next();
@@ -258,23 +779,43 @@ public class EqualsHashCodePlugin extends PluginAdapter
 
 			String property = field.getName();
 			FullyQualifiedJavaType type = field.getType();
-			if (type.isPrimitive())
+			if ("double".equals(type.getFullyQualifiedName())
+				|| "float".equals(type.getFullyQualifiedName()))
 			{
+				// consistent with hashCode(), unlike == for NaN and -0.0
+				sb.append("double".equals(type.getFullyQualifiedName()) ? "Double" : "Float");
+				sb.append(".compare(");
 				sb.append(property);
-				sb.append(" == other.");
+				sb.append(", ").append(other).append(".");
 				sb.append(property);
+				sb.append(") == 0");
+			}
+			else if (type.isPrimitive())
+			{
+				sb.append(property);
+				sb.append(" == ").append(other).append(".");
+				sb.append(property);
+			}
+			else if (isArray(type))
+			{
+				sb.append(arraysClass(innerClass));
+				sb.append(".equals(");
+				sb.append(property);
+				sb.append(", ").append(other).append(".");
+				sb.append(property);
+				sb.append(")");
 			}
 			else
 			{
 				sb.append("(");
 				sb.append(property);
-				sb.append(" == other.");
+				sb.append(" == ").append(other).append(".");
 				sb.append(property);
 				sb.append(" || (");
 				sb.append(property);
 				sb.append(" != null && ");
 				sb.append(property);
-				sb.append(".equals(other.");
+				sb.append(".equals(").append(other).append(".");
 				sb.append(property);
 				sb.append(")))");
 			}
@@ -289,6 +830,84 @@ public class EqualsHashCodePlugin extends PluginAdapter
 		innerClass.addMethod(method);
 	}
 
+	/**
+	 * Returns the instance fields ordered so that the cheap comparisons short-circuit first: primitives,
+	 * primary key columns, other columns, strings and then BLOB columns and arrays.<br>
+	 * The order of the fields with the same cost is preserved.
+	 */
+	private List<Field> sortByComparisonCost(IntrospectedTable introspectedTable,
+		InnerClass innerClass)
+	{
+		final Map<String, IntrospectedColumn> columns = new HashMap<String, IntrospectedColumn>();
+		if (innerClass instanceof TopLevelClass
+			&& !innerClass.getType().getFullyQualifiedName()
+				.equals(introspectedTable.getExampleType()))
+		{
+			for (IntrospectedColumn column : introspectedTable.getAllColumns())
+			{
+				columns.put(column.getJavaProperty(), column);
+			}
+		}
+		final List<IntrospectedColumn> primaryKeyColumns = introspectedTable
+			.getPrimaryKeyColumns();
+
+		List<Field> fields = new ArrayList<Field>();
+		for (Field field : innerClass.getFields())
+		{
+			if (!field.isStatic())
+				fields.add(field);
+		}
+		Collections.sort(fields, new Comparator<Field>()
+		{
+			public int compare(Field f1, Field f2)
+			{
+				return comparisonCost(f1) - comparisonCost(f2);
+			}
+
+			private int comparisonCost(Field field)
+			{
+				FullyQualifiedJavaType type = field.getType();
+				IntrospectedColumn column = columns.get(field.getName());
+				if (type.isPrimitive())
+					return 0;
+				if (column != null && primaryKeyColumns.contains(column))
+					return 1;
+				if (isArray(type) || (column != null && column.isBLOBColumn()))
+					return 4;
+				if ("java.lang.String".equals(type.getFullyQualifiedName()))
+					return 3;
+				return 2;
+			}
+		});
+		return fields;
+	}
+
+	private boolean isArray(FullyQualifiedJavaType type)
+	{
+		return type.getFullyQualifiedName().endsWith("[]");
+	}
+
+	/**
+	 * Returns <code>true</code> if the elements of the array can be added to an int as they
+	 * are.
+	 */
+	private boolean isIntegralArray(FullyQualifiedJavaType type)
+	{
+		String typeStr = type.getFullyQualifiedName();
+		return "byte[]".equals(typeStr) || "short[]".equals(typeStr)
+			|| "char[]".equals(typeStr) || "int[]".equals(typeStr);
+	}
+
+	private String arraysClass(InnerClass innerClass)
+	{
+		if (innerClass instanceof TopLevelClass)
+		{
+			((TopLevelClass)innerClass).addImportedType("java.util.Arrays");
+			return "Arrays";
+		}
+		return "java.util.Arrays";
+	}
+
 	private boolean hasSuperClass(InnerClass innerClass)
 	{
 		return null != innerClass.getSuperClass();
@@ -0,0 +1,144 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.List;
+
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.Interface;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.Parameter;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+import org.mybatis.generator.api.dom.xml.Attribute;
+import org.mybatis.generator.api.dom.xml.Document;
+import org.mybatis.generator.api.dom.xml.Element;
+import org.mybatis.generator.api.dom.xml.TextElement;
+import org.mybatis.generator.api.dom.xml.XmlElement;
+
+/**
+ * This plugin adds existsByExample(example) to the mapper.<br>
+ * Unlike <code>countByExample(example) &gt; 0</code>, the database can stop scanning at the
+ * first matching row.<br>
+ * The statement is
+ * <code>select case when exists (select 1 from ... where ...) then 1 else 0 end</code>, and
+ * the <code>dialect</code> property adds the dummy table required by some databases.
+ * <ul>
+ * <li><code>standard</code> (default) : no from clause (MySQL, PostgreSQL, H2, SQL Server,
+ * etc.)</li>
+ * <li><code>oracle</code> : from dual</li>
+ * <li><code>db2</code> : from sysibm.sysdummy1</li>
+ * </ul>
+ * The where clause is the same one used by countByExample, so the criteria added by the other
+ * plugins are available.
+ */
+public class ExistsByExamplePlugin extends PluginAdapter
+{
+	private static final String EXISTS_BY_EXAMPLE = "existsByExample";
+
+	private String fromClause;
+
+	public boolean validate(List<String> warnings)
+	{
+		String dialect = properties.getProperty("dialect", "standard").trim().toLowerCase();
+		if ("standard".equals(dialect))
+			fromClause = "";
+		else if ("oracle".equals(dialect))
+			fromClause = " from dual";
+		else if ("db2".equals(dialect))
+			fromClause = " from sysibm.sysdummy1";
+		else
+		{
+			warnings.add("ExistsByExamplePlugin: unsupported dialect '" + dialect + "'");
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean sqlMapDocumentGenerated(Document document, IntrospectedTable introspectedTable)
+	{
+		if (!introspectedTable.getRules().generateCountByExample())
+			return true;
+
+		XmlElement answer = new XmlElement("select");
+		answer.addAttribute(new Attribute("id", EXISTS_BY_EXAMPLE));
+		answer.addAttribute(new Attribute("parameterType", introspectedTable.getExampleType()));
+		answer.addAttribute(new Attribute("resultType", "java.lang.Boolean"));
+		context.getCommentGenerator().addComment(answer);
+
+		answer.addElement(new TextElement("select case when exists (select 1 from "
+			+ introspectedTable.getAliasedFullyQualifiedTableNameAtRuntime()));
+		XmlElement ifElement = new XmlElement("if");
+		ifElement.addAttribute(new Attribute("test", "_parameter != null"));
+		XmlElement includeElement = new XmlElement("include");
+		includeElement.addAttribute(new Attribute("refid",
+			introspectedTable.getExampleWhereClauseId()));
+		ifElement.addElement(includeElement);
+		answer.addElement(ifElement);
+		answer.addElement(new TextElement(") then 1 else 0 end" + fromClause));
+
+		// put it after countByExample
+		XmlElement root = document.getRootElement();
+		int index = root.getElements().size();
+		for (int i = 0; i < root.getElements().size(); i++)
+		{
+			Element elem = root.getElements().get(i);
+			if (elem instanceof XmlElement
+				&& hasId((XmlElement)elem, introspectedTable.getCountByExampleStatementId()))
+			{
+				index = i + 1;
+				break;
+			}
+		}
+		root.addElement(index, answer);
+		return true;
+	}
+
+	@Override
+	public boolean clientGenerated(Interface interfaze, TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		if (!introspectedTable.getRules().generateCountByExample())
+			return true;
+
+		FullyQualifiedJavaType exampleType = new FullyQualifiedJavaType(
+			introspectedTable.getExampleType());
+		interfaze.addImportedType(exampleType);
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(FullyQualifiedJavaType.getBooleanPrimitiveInstance());
+		method.setName(EXISTS_BY_EXAMPLE);
+		method.addParameter(new Parameter(exampleType, "example"));
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		interfaze.addMethod(method);
+		return true;
+	}
+
+	private boolean hasId(XmlElement element, String id)
+	{
+		for (Attribute attribute : element.getAttributes())
+		{
+			if ("id".equals(attribute.getName()))
+				return id.equals(attribute.getValue());
+		}
+		return false;
+	}
+}
@@ -16,12 +16,15 @@
 
 package com.github.harawata.mbgplugin;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.mybatis.generator.api.IntrospectedTable;
 import org.mybatis.generator.api.PluginAdapter;
 import org.mybatis.generator.api.dom.java.Field;
 import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.InnerEnum;
 import org.mybatis.generator.api.dom.java.JavaVisibility;
 import org.mybatis.generator.api.dom.java.Method;
 import org.mybatis.generator.api.dom.java.Parameter;
@@ -31,16 +34,59 @@ import org.mybatis.generator.api.dom.xml.TextElement;
 import org.mybatis.generator.api.dom.xml.XmlElement;
 
 /**
- * This plugin adds setForUpdate(boolean) method to the example class.<br />
- * When it's enabled, 'for update' clause is appended to the select statement.
+ * This plugin adds setLockMode(LockMode) method to the example class.<br />
+ * When a lock mode is set, the locking clause (e.g. 'for update skip locked') is appended to
+ * the select statement.<br />
+ * The available lock modes depend on the <code>dialect</code> property.
+ * <ul>
+ * <li><code>standard</code> (default) : WAIT</li>
+ * <li><code>mysql</code> (8.0+) : WAIT, NOWAIT, SKIP_LOCKED, SHARED</li>
+ * <li><code>mysql5</code> : WAIT, SHARED</li>
+ * <li><code>postgresql</code> : WAIT, NOWAIT, SKIP_LOCKED, SHARED</li>
+ * <li><code>oracle</code> : WAIT, NOWAIT, SKIP_LOCKED, WAIT_TIMEOUT</li>
+ * </ul>
+ * WAIT_TIMEOUT waits for the seconds specified by setLockWaitSeconds(int).<br />
+ * setForUpdate(boolean) is still available as a shortcut for WAIT.
  * 
  * @author Iwao AVE!
  */
 public class ForUpdatePlugin extends PluginAdapter
 {
+	private static final String LOCK_MODE = "LockMode";
 
-	public boolean validate(List<String> arg0)
+	private static final String WAIT_TIMEOUT = "WAIT_TIMEOUT";
+
+	private static final String SHARED = "SHARED";
+
+	/** Lock mode -> locking clause, in declaration order. */
+	private Map<String, String> lockClauses;
+
+	public boolean validate(List<String> warnings)
 	{
+		String dialect = properties.getProperty("dialect", "standard").trim().toLowerCase();
+		lockClauses = new LinkedHashMap<String, String>();
+		lockClauses.put("WAIT", "for update");
+		if ("mysql".equals(dialect) || "postgresql".equals(dialect))
+		{
+			lockClauses.put("NOWAIT", "for update nowait");
+			lockClauses.put("SKIP_LOCKED", "for update skip locked");
+			lockClauses.put(SHARED, "for share");
+		}
+		else if ("mysql5".equals(dialect))
+		{
+			lockClauses.put(SHARED, "lock in share mode");
+		}
+		else if ("oracle".equals(dialect))
+		{
+			lockClauses.put("NOWAIT", "for update nowait");
+			lockClauses.put("SKIP_LOCKED", "for update skip locked");
+			lockClauses.put(WAIT_TIMEOUT, "for update wait ${lockWaitSeconds}");
+		}
+		else if (!"standard".equals(dialect))
+		{
+			warnings.add("ForUpdatePlugin: unsupported dialect '" + dialect + "'");
+			return false;
+		}
 		return true;
 	}
 
@@ -48,20 +94,50 @@ public class ForUpdatePlugin extends PluginAdapter
 	public boolean modelExampleClassGenerated(TopLevelClass topLevelClass,
 		IntrospectedTable introspectedTable)
 	{
-		// add field, getter, setter for for update clause
+		FullyQualifiedJavaType lockModeType = new FullyQualifiedJavaType(LOCK_MODE);
+
+		InnerEnum lockMode = new InnerEnum(lockModeType);
+		lockMode.setVisibility(JavaVisibility.PUBLIC);
+		lockMode.addEnumConstant("NONE");
+		for (String mode : lockClauses.keySet())
+		{
+			lockMode.addEnumConstant(mode);
+		}
+		topLevelClass.addInnerEnum(lockMode);
+
+		// add field, getter, setter for the locking clause
 		Field field = new Field();
 		field.setVisibility(JavaVisibility.PROTECTED);
-		field.setType(FullyQualifiedJavaType.getBooleanPrimitiveInstance());
-		field.setName("forUpdate");
+		field.setType(lockModeType);
+		field.setName("lockMode");
+		field.setInitializationString(LOCK_MODE + ".NONE");
 		context.getCommentGenerator().addFieldComment(field, introspectedTable);
 		topLevelClass.addField(field);
 
 		Method method = new Method();
 		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setName("setLockMode");
+		method.addParameter(new Parameter(lockModeType, "lockMode"));
+		method.addBodyLine("this.lockMode = lockMode == null ? " + LOCK_MODE
+			+ ".NONE : lockMode;");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(lockModeType);
+		method.setName("getLockMode");
+		method.addBodyLine("return lockMode;");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
 		method.setName("setForUpdate");
 		method.addParameter(new Parameter(FullyQualifiedJavaType.getBooleanPrimitiveInstance(),
 			"forUpdate"));
-		method.addBodyLine("this.forUpdate = forUpdate;");
+		method.addBodyLine("this.lockMode = forUpdate ? " + LOCK_MODE + ".WAIT : " + LOCK_MODE
+			+ ".NONE;");
 		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
 		topLevelClass.addMethod(method);
 
@@ -69,9 +145,47 @@ public class ForUpdatePlugin extends PluginAdapter
 		method.setVisibility(JavaVisibility.PUBLIC);
 		method.setReturnType(FullyQualifiedJavaType.getBooleanPrimitiveInstance());
 		method.setName("isForUpdate");
-		method.addBodyLine("return forUpdate;");
-		topLevelClass.addMethod(method);
+		if (lockClauses.containsKey(SHARED))
+			method.addBodyLine("return lockMode != " + LOCK_MODE + ".NONE && lockMode != "
+				+ LOCK_MODE + "." + SHARED + ";");
+		else
+			method.addBodyLine("return lockMode != " + LOCK_MODE + ".NONE;");
 		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		if (lockClauses.containsKey(WAIT_TIMEOUT))
+		{
+			field = new Field();
+			field.setVisibility(JavaVisibility.PROTECTED);
+			field.setType(FullyQualifiedJavaType.getIntInstance());
+			field.setName("lockWaitSeconds");
+			context.getCommentGenerator().addFieldComment(field, introspectedTable);
+			topLevelClass.addField(field);
+
+			method = new Method();
+			method.setVisibility(JavaVisibility.PUBLIC);
+			method.setName("setLockWaitSeconds");
+			method.addParameter(new Parameter(FullyQualifiedJavaType.getIntInstance(),
+				"lockWaitSeconds"));
+			method.addBodyLine("this.lockMode = " + LOCK_MODE + "." + WAIT_TIMEOUT + ";");
+			method.addBodyLine("this.lockWaitSeconds = lockWaitSeconds;");
+			context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+			topLevelClass.addMethod(method);
+
+			method = new Method();
+			method.setVisibility(JavaVisibility.PUBLIC);
+			method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+			method.setName("getLockWaitSeconds");
+			method.addBodyLine("return lockWaitSeconds;");
+			context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+			topLevelClass.addMethod(method);
+		}
+
+		for (Method m : topLevelClass.getMethods())
+		{
+			if ("clear".equals(m.getName()) && m.getParameters().isEmpty())
+				m.addBodyLine("lockMode = " + LOCK_MODE + ".NONE;");
+		}
 
 		return true;
 	}
@@ -94,9 +208,19 @@ public class ForUpdatePlugin extends PluginAdapter
 
 	protected void addElement(XmlElement element)
 	{
+		XmlElement chooseElement = new XmlElement("choose");
+		for (Map.Entry<String, String> lockClause : lockClauses.entrySet())
+		{
+			XmlElement whenElement = new XmlElement("when");
+			whenElement.addAttribute(new Attribute("test", "lockMode.name() == '"
+				+ lockClause.getKey() + "'"));
+			whenElement.addElement(new TextElement(lockClause.getValue()));
+			chooseElement.addElement(whenElement);
+		}
+
 		XmlElement ifElement = new XmlElement("if");
-		ifElement.addAttribute(new Attribute("test", "forUpdate"));
-		ifElement.addElement(new TextElement("for update"));
+		ifElement.addAttribute(new Attribute("test", "lockMode != null"));
+		ifElement.addElement(chooseElement);
 		element.addElement(ifElement);
 	}
 
@@ -0,0 +1,279 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mybatis.generator.api.GeneratedXmlFile;
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.Plugin;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.logging.Log;
+import org.mybatis.generator.logging.LogFactory;
+
+/**
+ * This plugin measures the time spent in each hook of the other plugins and writes a report
+ * sorted by the total time to the file specified by <code>reportFile</code> property
+ * (<code>mbg-profile.txt</code> by default).<br>
+ * The allocated bytes are also reported when the JVM supports thread allocation measurement
+ * (e.g. HotSpot).<br>
+ * The other plugins are wrapped when the first table is initialized, so this plugin should be
+ * the first one in the configuration. The report is written in
+ * contextGenerateAdditionalXmlFiles(), which is the last hook of the generation; the hooks
+ * running after it (i.e. the ones of the plugins configured after this plugin) are not
+ * included.
+ */
+public class GenerationProfilerPlugin extends PluginAdapter
+{
+	private static final Log log = LogFactory.getLog(GenerationProfilerPlugin.class);
+
+	private String reportFile;
+
+	private boolean wrapped;
+
+	private long startNanos;
+
+	private int tableCount;
+
+	/** "plugin hook" -> stats, in order of the first invocation. */
+	private final Map<String, HookStats> stats = new LinkedHashMap<String, HookStats>();
+
+	private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+	private boolean allocationSupported;
+
+	public boolean validate(List<String> warnings)
+	{
+		reportFile = properties.getProperty("reportFile", "mbg-profile.txt").trim();
+		try
+		{
+			allocationSupported = threadMXBean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean)threadMXBean)
+					.isThreadAllocatedMemorySupported();
+			if (allocationSupported)
+				((com.sun.management.ThreadMXBean)threadMXBean)
+					.setThreadAllocatedMemoryEnabled(true);
+		}
+		catch (LinkageError e)
+		{
+			allocationSupported = false;
+		}
+		return true;
+	}
+
+	@Override
+	public void initialized(IntrospectedTable introspectedTable)
+	{
+		if (!wrapped)
+		{
+			wrapped = true;
+			startNanos = System.nanoTime();
+			wrapPlugins();
+		}
+		tableCount++;
+	}
+
+	@Override
+	public List<GeneratedXmlFile> contextGenerateAdditionalXmlFiles()
+	{
+		if (wrapped)
+			writeReport(System.nanoTime() - startNanos);
+		return null;
+	}
+
+	/**
+	 * Replaces the other plugins in the aggregator with the measuring proxies.
+	 */
+	@SuppressWarnings("unchecked")
+	private void wrapPlugins()
+	{
+		List<Plugin> plugins;
+		try
+		{
+			// MBG 1.3.1 has no API to access the plugins in the aggregator.
+			Field field = context.getPlugins().getClass().getDeclaredField("plugins");
+			field.setAccessible(true);
+			plugins = (List<Plugin>)field.get(context.getPlugins());
+		}
+		catch (Exception e)
+		{
+			log.warn("GenerationProfilerPlugin: cannot access the plugins: " + e);
+			return;
+		}
+
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		// set() does not break the iteration of the aggregator calling this hook
+		for (int i = 0; i < plugins.size(); i++)
+		{
+			Plugin plugin = plugins.get(i);
+			if (plugin == this)
+				continue;
+			String name = plugin.getClass().getSimpleName();
+			Integer count = counts.get(name);
+			counts.put(name, count == null ? 1 : count + 1);
+			if (count != null)
+				name = name + "#" + (count + 1);
+			plugins.set(i, (Plugin)Proxy.newProxyInstance(Plugin.class.getClassLoader(),
+				new Class<?>[]{
+					Plugin.class
+				}, new ProfilingHandler(plugin, name)));
+		}
+	}
+
+	private void writeReport(long totalNanos)
+	{
+		List<Map.Entry<String, HookStats>> entries = new ArrayList<Map.Entry<String, HookStats>>(
+			stats.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, HookStats>>()
+		{
+			public int compare(Map.Entry<String, HookStats> e1, Map.Entry<String, HookStats> e2)
+			{
+				long diff = e2.getValue().nanos - e1.getValue().nanos;
+				return diff > 0 ? 1 : diff < 0 ? -1 : 0;
+			}
+		});
+
+		long hookNanos = 0L;
+		for (Map.Entry<String, HookStats> entry : entries)
+		{
+			hookNanos += entry.getValue().nanos;
+		}
+
+		PrintWriter writer = null;
+		try
+		{
+			File file = new File(reportFile);
+			if (file.getParentFile() != null)
+				file.getParentFile().mkdirs();
+			writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			writer.printf("tables: %d, generation: %.1f ms, plugin hooks: %.1f ms (%.1f%%)%n",
+				tableCount, totalNanos / 1e6, hookNanos / 1e6, totalNanos == 0 ? 0.0 : hookNanos
+					* 100.0 / totalNanos);
+			writer.printf("%-70s %10s %12s %10s %10s %14s%n", "plugin hook", "calls",
+				"total ms", "avg us", "max us", allocationSupported ? "alloc KB" : "alloc n/a");
+			for (Map.Entry<String, HookStats> entry : entries)
+			{
+				HookStats s = entry.getValue();
+				writer.printf("%-70s %10d %12.3f %10.1f %10.1f %14s%n", entry.getKey(), s.calls,
+					s.nanos / 1e6, s.nanos / 1e3 / s.calls, s.maxNanos / 1e3,
+					allocationSupported ? String.valueOf(s.bytes / 1024) : "-");
+			}
+		}
+		catch (IOException e)
+		{
+			log.warn("GenerationProfilerPlugin: cannot write " + reportFile + ": " + e);
+		}
+		finally
+		{
+			if (writer != null)
+				writer.close();
+		}
+	}
+
+	private long allocatedBytes()
+	{
+		if (!allocationSupported)
+			return 0L;
+		return ((com.sun.management.ThreadMXBean)threadMXBean).getThreadAllocatedBytes(Thread
+			.currentThread()
+			.getId());
+	}
+
+	private static final class HookStats
+	{
+		long calls;
+
+		long nanos;
+
+		long maxNanos;
+
+		long bytes;
+	}
+
+	private final class ProfilingHandler implements InvocationHandler
+	{
+		private final Plugin target;
+
+		private final String name;
+
+		/** Method -> report key, to avoid building the key on each call. */
+		private final Map<Method, String> keys = new HashMap<Method, String>();
+
+		ProfilingHandler(Plugin target, String name)
+		{
+			this.target = target;
+			this.name = name;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			if (method.getDeclaringClass() == Object.class)
+				return method.invoke(target, args);
+
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			try
+			{
+				return method.invoke(target, args);
+			}
+			catch (InvocationTargetException e)
+			{
+				throw e.getCause();
+			}
+			finally
+			{
+				long elapsed = System.nanoTime() - start;
+				bytes = allocatedBytes() - bytes;
+				String key = keys.get(method);
+				if (key == null)
+				{
+					key = name + " " + method.getName() + "/" + method.getParameterTypes().length;
+					keys.put(method, key);
+				}
+				HookStats s = stats.get(key);
+				if (s == null)
+				{
+					s = new HookStats();
+					stats.put(key, s);
+				}
+				s.calls++;
+				s.nanos += elapsed;
+				s.bytes += bytes;
+				if (elapsed > s.maxNanos)
+					s.maxNanos = elapsed;
+			}
+		}
+	}
+}
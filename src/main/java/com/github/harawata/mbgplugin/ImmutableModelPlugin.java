@@ -0,0 +1,528 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.mybatis.generator.api.GeneratedJavaFile;
+import org.mybatis.generator.api.IntrospectedColumn;
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.Field;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.InnerClass;
+import org.mybatis.generator.api.dom.java.Interface;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.Parameter;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+import org.mybatis.generator.api.dom.xml.Attribute;
+import org.mybatis.generator.api.dom.xml.Document;
+import org.mybatis.generator.api.dom.xml.Element;
+import org.mybatis.generator.api.dom.xml.TextElement;
+import org.mybatis.generator.api.dom.xml.XmlElement;
+import org.mybatis.generator.codegen.mybatis3.MyBatis3FormattingUtilities;
+import org.mybatis.generator.internal.util.JavaBeansUtil;
+
+/**
+ * This plugin generates an immutable variant of the base record class (e.g.
+ * <code>ImmutableItem</code> for <code>Item</code>) for the tables listed in the
+ * <code>tables</code> property (comma-separated table names, or <code>*</code> for all
+ * tables).<br>
+ * The variant has final fields, getters, <code>with*</code> copy methods, a builder and the
+ * conversion methods from/to the base record, so its instances can be shared between threads
+ * without defensive copies.<br>
+ * The values of the mutable types (<code>Date</code> and its <code>java.sql</code> subclasses,
+ * and the arrays such as <code>byte[]</code>) are cloned by the constructor, the builder and
+ * toRecord() on the way in and by the getters on the way out, as they could be modified
+ * otherwise. The other types are assumed to be immutable.<br>
+ * The variant is passed to modelBaseRecordClassGenerated() of all the plugins, so
+ * EqualsHashCodePlugin and ToStringPlugin generate the same equals(), hashCode() and toString()
+ * as the base record (EqualsHashCodePlugin computes the hash code in the constructor as all the
+ * fields are final).<br>
+ * The mapper gets <code>selectByExampleImmutable</code> and
+ * <code>selectByPrimaryKeyImmutable</code> that use a result map with
+ * <code>&lt;constructor&gt;</code>, so MyBatis hydrates the variant directly. As all the
+ * constructor arguments are mapped, selectByExampleImmutable cannot be used with the column
+ * projection of ColumnProjectionPlugin.
+ */
+public class ImmutableModelPlugin extends PluginAdapter
+{
+	private static final String PREFIX = "Immutable";
+
+	private static final String BUILDER = "Builder";
+
+	private static final Set<String> DATE_TYPES = new HashSet<String>();
+
+	static
+	{
+		DATE_TYPES.add("java.util.Date");
+		DATE_TYPES.add("java.sql.Date");
+		DATE_TYPES.add("java.sql.Time");
+		DATE_TYPES.add("java.sql.Timestamp");
+	}
+
+	private Set<String> tables;
+
+	private boolean allTables;
+
+	public boolean validate(List<String> warnings)
+	{
+		tables = new HashSet<String>();
+		String value = properties.getProperty("tables");
+		if (value != null)
+		{
+			for (String table : value.split(","))
+			{
+				table = table.trim();
+				if ("*".equals(table))
+					allTables = true;
+				else if (table.length() > 0)
+					tables.add(table.toUpperCase());
+			}
+		}
+		if (!allTables && tables.isEmpty())
+		{
+			warnings.add("ImmutableModelPlugin: tables property is required");
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean sqlMapDocumentGenerated(Document document, IntrospectedTable introspectedTable)
+	{
+		if (!isEnabled(introspectedTable))
+			return true;
+
+		String resultMapId = PREFIX + introspectedTable.getBaseResultMapId();
+		// selectByExample does not select the BLOB columns held by the base record
+		boolean baseHasBLOBs = baseRecordHasBLOBColumns(introspectedTable);
+		String selectByExampleId = baseHasBLOBs ? introspectedTable
+			.getSelectByExampleWithBLOBsStatementId() : introspectedTable
+			.getSelectByExampleStatementId();
+		List<Element> elements = document.getRootElement().getElements();
+		for (int i = 0; i < elements.size(); i++)
+		{
+			Element elem = elements.get(i);
+			if (!(elem instanceof XmlElement))
+				continue;
+			String id = getAttribute((XmlElement)elem, "id");
+			if (introspectedTable.getBaseResultMapId().equals(id))
+			{
+				elements.add(++i, createResultMap(introspectedTable, resultMapId));
+			}
+			else if (selectByExampleId.equals(id))
+			{
+				elements.add(++i, createSelect(introspectedTable, (XmlElement)elem,
+					introspectedTable.getSelectByExampleStatementId() + PREFIX, resultMapId,
+					baseHasBLOBs));
+			}
+			else if (introspectedTable.getSelectByPrimaryKeyStatementId().equals(id))
+			{
+				elements.add(++i, createSelect(introspectedTable, (XmlElement)elem, id + PREFIX,
+					resultMapId, baseHasBLOBs));
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean clientGenerated(Interface interfaze, TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		if (!isEnabled(introspectedTable))
+			return true;
+
+		FullyQualifiedJavaType variantType = getVariantType(introspectedTable);
+		List<Method> methods = new ArrayList<Method>();
+		for (Method original : interfaze.getMethods())
+		{
+			String name = original.getName();
+			FullyQualifiedJavaType returnType;
+			if (introspectedTable.getSelectByExampleStatementId().equals(name))
+			{
+				returnType = FullyQualifiedJavaType.getNewListInstance();
+				returnType.addTypeArgument(variantType);
+			}
+			else if (introspectedTable.getSelectByPrimaryKeyStatementId().equals(name))
+			{
+				returnType = variantType;
+			}
+			else
+			{
+				continue;
+			}
+			Method method = new Method();
+			method.setVisibility(JavaVisibility.PUBLIC);
+			method.setReturnType(returnType);
+			method.setName(name + PREFIX);
+			for (Parameter parameter : original.getParameters())
+			{
+				method.addParameter(parameter);
+			}
+			context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+			methods.add(method);
+		}
+		if (!methods.isEmpty())
+		{
+			interfaze.addImportedType(variantType);
+			for (Method method : methods)
+			{
+				interfaze.addMethod(method);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public List<GeneratedJavaFile> contextGenerateAdditionalJavaFiles(
+		IntrospectedTable introspectedTable)
+	{
+		List<GeneratedJavaFile> answer = new ArrayList<GeneratedJavaFile>();
+		if (!isEnabled(introspectedTable))
+			return answer;
+
+		TopLevelClass topLevelClass = createVariantClass(introspectedTable);
+		// let the other plugins (equals, hashCode, toString, etc.) decorate the variant
+		if (context.getPlugins().modelBaseRecordClassGenerated(topLevelClass, introspectedTable))
+		{
+			answer.add(new GeneratedJavaFile(topLevelClass, context
+				.getJavaModelGeneratorConfiguration()
+				.getTargetProject()));
+		}
+		return answer;
+	}
+
+	private TopLevelClass createVariantClass(IntrospectedTable introspectedTable)
+	{
+		FullyQualifiedJavaType variantType = getVariantType(introspectedTable);
+		FullyQualifiedJavaType recordType = new FullyQualifiedJavaType(
+			introspectedTable.getBaseRecordType());
+		FullyQualifiedJavaType builderType = new FullyQualifiedJavaType(BUILDER);
+		List<IntrospectedColumn> columns = getColumns(introspectedTable);
+
+		TopLevelClass topLevelClass = new TopLevelClass(variantType);
+		topLevelClass.setVisibility(JavaVisibility.PUBLIC);
+		topLevelClass.setFinal(true);
+		context.getCommentGenerator().addJavaFileComment(topLevelClass);
+
+		StringBuilder arguments = new StringBuilder();
+		for (IntrospectedColumn column : columns)
+		{
+			if (arguments.length() > 0)
+				arguments.append(", ");
+			arguments.append(column.getJavaProperty());
+		}
+
+		Method constructor = new Method();
+		constructor.setVisibility(JavaVisibility.PUBLIC);
+		constructor.setConstructor(true);
+		constructor.setName(variantType.getShortName());
+		context.getCommentGenerator().addGeneralMethodComment(constructor, introspectedTable);
+		topLevelClass.addMethod(constructor);
+
+		InnerClass builder = new InnerClass(builderType);
+		builder.setVisibility(JavaVisibility.PUBLIC);
+		builder.setStatic(true);
+		builder.setFinal(true);
+
+		Method toBuilder = new Method();
+		toBuilder.setVisibility(JavaVisibility.PUBLIC);
+		toBuilder.setReturnType(builderType);
+		toBuilder.setName("toBuilder");
+		toBuilder.addBodyLine(BUILDER + " builder = new " + BUILDER + "();");
+
+		Method copyOf = new Method();
+		copyOf.setVisibility(JavaVisibility.PUBLIC);
+		copyOf.setStatic(true);
+		copyOf.setReturnType(variantType);
+		copyOf.setName("copyOf");
+		copyOf.addParameter(new Parameter(recordType, "record"));
+		StringBuilder copyOfArguments = new StringBuilder();
+
+		Method toRecord = new Method();
+		toRecord.setVisibility(JavaVisibility.PUBLIC);
+		toRecord.setReturnType(recordType);
+		toRecord.setName("toRecord");
+		toRecord.addBodyLine(recordType.getShortName() + " record = new "
+			+ recordType.getShortName() + "();");
+
+		List<Method> withMethods = new ArrayList<Method>();
+		for (IntrospectedColumn column : columns)
+		{
+			FullyQualifiedJavaType type = column.getFullyQualifiedJavaType();
+			String property = column.getJavaProperty();
+			String getterName = JavaBeansUtil.getGetterMethodName(property, type);
+			topLevelClass.addImportedType(type);
+
+			Field field = new Field();
+			field.setVisibility(JavaVisibility.PRIVATE);
+			field.setFinal(true);
+			field.setType(type);
+			field.setName(property);
+			context.getCommentGenerator().addFieldComment(field, introspectedTable, column);
+			topLevelClass.addField(field);
+
+			constructor.addParameter(new Parameter(type, property));
+			constructor.addBodyLine("this." + property + " = " + copy(type, property) + ";");
+
+			Method method = new Method();
+			method.setVisibility(JavaVisibility.PUBLIC);
+			method.setReturnType(type);
+			method.setName(getterName);
+			method.addBodyLine("return " + copy(type, property) + ";");
+			context.getCommentGenerator().addGetterComment(method, introspectedTable, column);
+			topLevelClass.addMethod(method);
+
+			// returns this when the value is the same instance, the class is immutable
+			method = new Method();
+			method.setVisibility(JavaVisibility.PUBLIC);
+			method.setReturnType(variantType);
+			method.setName("with" + Character.toUpperCase(property.charAt(0))
+				+ property.substring(1));
+			method.addParameter(new Parameter(type, property));
+			method.addBodyLine("if (this." + property + " == " + property + ") {");
+			method.addBodyLine("return this;");
+			method.addBodyLine("}");
+			method.addBodyLine("return new " + variantType.getShortName() + "(" + arguments
+				+ ");");
+			context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+			withMethods.add(method);
+
+			field = new Field();
+			field.setVisibility(JavaVisibility.PRIVATE);
+			field.setType(type);
+			field.setName(property);
+			builder.addField(field);
+
+			method = new Method();
+			method.setVisibility(JavaVisibility.PUBLIC);
+			method.setReturnType(builderType);
+			method.setName(property);
+			method.addParameter(new Parameter(type, property));
+			method.addBodyLine("this." + property + " = " + copy(type, property) + ";");
+			method.addBodyLine("return this;");
+			builder.addMethod(method);
+
+			toBuilder.addBodyLine("builder." + property + " = " + property + ";");
+
+			if (copyOfArguments.length() > 0)
+				copyOfArguments.append(", ");
+			copyOfArguments.append("record.").append(getterName).append("()");
+
+			toRecord.addBodyLine("record." + JavaBeansUtil.getSetterMethodName(property) + "("
+				+ copy(type, property) + ");");
+		}
+
+		for (Method method : withMethods)
+		{
+			topLevelClass.addMethod(method);
+		}
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setStatic(true);
+		method.setReturnType(builderType);
+		method.setName("builder");
+		method.addBodyLine("return new " + BUILDER + "();");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		toBuilder.addBodyLine("return builder;");
+		context.getCommentGenerator().addGeneralMethodComment(toBuilder, introspectedTable);
+		topLevelClass.addMethod(toBuilder);
+
+		topLevelClass.addImportedType(recordType);
+		copyOf.addBodyLine("return new " + variantType.getShortName() + "(" + copyOfArguments
+			+ ");");
+		context.getCommentGenerator().addGeneralMethodComment(copyOf, introspectedTable);
+		topLevelClass.addMethod(copyOf);
+
+		// the record of an immutable table has no setter
+		if (!introspectedTable.isImmutable())
+		{
+			toRecord.addBodyLine("return record;");
+			context.getCommentGenerator().addGeneralMethodComment(toRecord, introspectedTable);
+			topLevelClass.addMethod(toRecord);
+		}
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(variantType);
+		method.setName("build");
+		method.addBodyLine("return new " + variantType.getShortName() + "(" + arguments + ");");
+		builder.addMethod(method);
+		topLevelClass.addInnerClass(builder);
+
+		return topLevelClass;
+	}
+
+	private XmlElement createResultMap(IntrospectedTable introspectedTable, String id)
+	{
+		XmlElement answer = new XmlElement("resultMap");
+		answer.addAttribute(new Attribute("id", id));
+		answer.addAttribute(new Attribute("type", getVariantType(introspectedTable)
+			.getFullyQualifiedName()));
+		context.getCommentGenerator().addComment(answer);
+
+		List<IntrospectedColumn> primaryKeyColumns = introspectedTable.getPrimaryKeyColumns();
+		XmlElement constructorElement = new XmlElement("constructor");
+		for (IntrospectedColumn column : getColumns(introspectedTable))
+		{
+			XmlElement argElement = new XmlElement(primaryKeyColumns.contains(column) ? "idArg"
+				: "arg");
+			argElement.addAttribute(new Attribute("column",
+				MyBatis3FormattingUtilities.getRenamedColumnNameForResultMap(column)));
+			argElement.addAttribute(new Attribute("jdbcType", column.getJdbcTypeName()));
+			argElement.addAttribute(new Attribute("javaType", getJavaTypeAlias(column
+				.getFullyQualifiedJavaType())));
+			if (column.getTypeHandler() != null)
+				argElement.addAttribute(new Attribute("typeHandler", column.getTypeHandler()));
+			constructorElement.addElement(argElement);
+		}
+		answer.addElement(constructorElement);
+		return answer;
+	}
+
+	/**
+	 * Copies the select statement with the result map of the variant.<br>
+	 * The BLOB columns are removed from the column list unless the base record (and so the
+	 * variant) holds them, i.e. there is no record with BLOBs class.
+	 */
+	private XmlElement createSelect(IntrospectedTable introspectedTable, XmlElement original,
+		String id, String resultMapId, boolean keepBLOBColumns)
+	{
+		XmlElement answer = new XmlElement("select");
+		answer.addAttribute(new Attribute("id", id));
+		answer.addAttribute(new Attribute("resultMap", resultMapId));
+		for (Attribute attribute : original.getAttributes())
+		{
+			if (!"id".equals(attribute.getName()) && !"resultMap".equals(attribute.getName()))
+				answer.addAttribute(attribute);
+		}
+		context.getCommentGenerator().addComment(answer);
+
+		List<Element> children = new ArrayList<Element>();
+		// skip the comment of the original statement
+		boolean inComment = false;
+		for (Element child : original.getElements())
+		{
+			if (child instanceof TextElement)
+			{
+				String text = child.getFormattedContent(0).trim();
+				if (text.startsWith("<!--"))
+					inComment = true;
+				if (inComment)
+				{
+					inComment = !text.endsWith("-->");
+					continue;
+				}
+			}
+			else if (!keepBLOBColumns && child instanceof XmlElement
+				&& introspectedTable.getBlobColumnListId().equals(
+					getAttribute((XmlElement)child, "refid")))
+			{
+				// and the preceding comma
+				int last = children.size() - 1;
+				if (last >= 0 && children.get(last) instanceof TextElement
+					&& ",".equals(children.get(last).getFormattedContent(0).trim()))
+					children.remove(last);
+				continue;
+			}
+			children.add(child);
+		}
+		for (Element child : children)
+		{
+			answer.addElement(child);
+		}
+		return answer;
+	}
+
+	/**
+	 * Returns the expression that clones the value of the variable if the type is mutable
+	 * (Timestamp keeps its nanos as clone() copies all the fields), or the variable as is.
+	 */
+	private String copy(FullyQualifiedJavaType type, String variable)
+	{
+		String name = type.getFullyQualifiedName();
+		if (name.endsWith("[]"))
+			return variable + " == null ? null : " + variable + ".clone()";
+		if (DATE_TYPES.contains(name))
+			return variable + " == null ? null : (" + type.getShortName() + ") " + variable
+				+ ".clone()";
+		return variable;
+	}
+
+	/**
+	 * Returns the MyBatis type alias used to find the constructor, e.g. _int for int.
+	 */
+	private String getJavaTypeAlias(FullyQualifiedJavaType type)
+	{
+		String name = type.getFullyQualifiedName();
+		if (type.isPrimitive()
+			|| (name.endsWith("[]") && new FullyQualifiedJavaType(name.substring(0,
+				name.length() - 2)).isPrimitive()))
+			return "_" + name;
+		return name;
+	}
+
+	private boolean isEnabled(IntrospectedTable introspectedTable)
+	{
+		return (allTables || tables.contains(introspectedTable.getFullyQualifiedTable()
+			.getIntrospectedTableName()
+			.toUpperCase()))
+			&& introspectedTable.getRules().generateBaseRecordClass()
+			&& !getColumns(introspectedTable).isEmpty();
+	}
+
+	/**
+	 * The columns held by the base record class including the ones of the superclass.
+	 */
+	private List<IntrospectedColumn> getColumns(IntrospectedTable introspectedTable)
+	{
+		return introspectedTable.getRules().generateRecordWithBLOBsClass() ? introspectedTable
+			.getNonBLOBColumns() : introspectedTable.getAllColumns();
+	}
+
+	private boolean baseRecordHasBLOBColumns(IntrospectedTable introspectedTable)
+	{
+		return introspectedTable.hasBLOBColumns()
+			&& !introspectedTable.getRules().generateRecordWithBLOBsClass();
+	}
+
+	private FullyQualifiedJavaType getVariantType(IntrospectedTable introspectedTable)
+	{
+		FullyQualifiedJavaType recordType = new FullyQualifiedJavaType(
+			introspectedTable.getBaseRecordType());
+		return new FullyQualifiedJavaType(recordType.getPackageName() + "." + PREFIX
+			+ recordType.getShortName());
+	}
+
+	private String getAttribute(XmlElement element, String name)
+	{
+		for (Attribute attribute : element.getAttributes())
+		{
+			if (name.equals(attribute.getName()))
+				return attribute.getValue();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,249 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.List;
+
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.Field;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.InnerClass;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.Parameter;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+import org.mybatis.generator.api.dom.xml.Attribute;
+import org.mybatis.generator.api.dom.xml.Element;
+import org.mybatis.generator.api.dom.xml.TextElement;
+import org.mybatis.generator.api.dom.xml.XmlElement;
+
+/**
+ * Each distinct size of the list passed to andXxxIn() / andXxxNotIn() produces a different SQL
+ * statement, which fills the statement caches of the database and the JDBC driver.<br>
+ * This plugin changes addCriterion() of GeneratedCriteria so that the list values are
+ * <ul>
+ * <li>deduplicated (in the original order),</li>
+ * <li>padded to the next power of two by repeating the last value, which does not change the
+ * result of IN / NOT IN, and</li>
+ * <li>split into chunks of <code>chunkSize</code> values (1000 by default) which are OR-ed
+ * (AND-ed for NOT IN), to stay within the limit of the database (e.g. 1000 on Oracle).</li>
+ * </ul>
+ * So a list of n distinct values produces one of about log2(<code>chunkSize</code>) statements
+ * per chunk count. Padding can be disabled by setting <code>padding</code> property to false.
+ * <br>
+ * The criteria of the columns with a type handler are not changed.
+ */
+public class InListCriteriaPlugin extends PluginAdapter
+{
+	private int chunkSize;
+
+	private boolean padding;
+
+	public boolean validate(List<String> warnings)
+	{
+		chunkSize = PluginSupport.getPositiveIntProperty(properties, "chunkSize", 1000,
+			"InListCriteriaPlugin", warnings);
+		padding = PluginSupport.getBooleanProperty(properties, "padding", true);
+		return chunkSize > 0;
+	}
+
+	@Override
+	public boolean modelExampleClassGenerated(TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		for (InnerClass innerClass : topLevelClass.getInnerClasses())
+		{
+			if ("GeneratedCriteria".equals(innerClass.getType().getShortName()))
+			{
+				modifyGeneratedCriteria(topLevelClass, innerClass);
+			}
+			else if ("Criterion".equals(innerClass.getType().getShortName()))
+			{
+				modifyCriterion(innerClass);
+			}
+		}
+		return true;
+	}
+
+	private void modifyCriterion(InnerClass innerClass)
+	{
+		// "or" for IN, "and" for NOT IN, null if the value is not chunked
+		Field field = new Field();
+		field.setVisibility(JavaVisibility.PRIVATE);
+		field.setType(FullyQualifiedJavaType.getStringInstance());
+		field.setName("chunkOperator");
+		innerClass.addField(field);
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setName("isChunkedListValue");
+		method.setReturnType(FullyQualifiedJavaType.getBooleanPrimitiveInstance());
+		method.addBodyLine("return chunkOperator != null;");
+		innerClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setName("getChunkOperator");
+		method.setReturnType(FullyQualifiedJavaType.getStringInstance());
+		method.addBodyLine("return chunkOperator;");
+		innerClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PROTECTED);
+		method.setName("chunked");
+		method.setReturnType(new FullyQualifiedJavaType("Criterion"));
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getStringInstance(),
+			"chunkOperator"));
+		method.addBodyLine("this.listValue = false;");
+		method.addBodyLine("this.chunkOperator = chunkOperator;");
+		method.addBodyLine("return this;");
+		innerClass.addMethod(method);
+	}
+
+	private void modifyGeneratedCriteria(TopLevelClass topLevelClass, InnerClass innerClass)
+	{
+		for (Method method : innerClass.getMethods())
+		{
+			if (!"addCriterion".equals(method.getName()) || method.getParameters().size() != 3)
+				continue;
+			List<String> bodyLines = method.getBodyLines();
+			for (int i = 0; i < bodyLines.size(); i++)
+			{
+				if ("criteria.add(new Criterion(condition, value));".equals(bodyLines.get(i)))
+				{
+					bodyLines.set(i, "if (value instanceof List<?>) {");
+					bodyLines.add(i + 1, "addListCriterion(condition, (List<?>) value);");
+					bodyLines.add(i + 2, "} else {");
+					bodyLines.add(i + 3, "criteria.add(new Criterion(condition, value));");
+					bodyLines.add(i + 4, "}");
+					break;
+				}
+			}
+		}
+
+		topLevelClass.addImportedType(new FullyQualifiedJavaType("java.util.LinkedHashSet"));
+		FullyQualifiedJavaType listType = FullyQualifiedJavaType.getNewListInstance();
+		listType.addTypeArgument(new FullyQualifiedJavaType("?"));
+		FullyQualifiedJavaType objectListType = FullyQualifiedJavaType.getNewListInstance();
+		objectListType.addTypeArgument(FullyQualifiedJavaType.getObjectInstance());
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PROTECTED);
+		method.setName("addListCriterion");
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getStringInstance(),
+			"condition"));
+		method.addParameter(new Parameter(listType, "values"));
+		method.addBodyLine("if (values.size() < 2) {");
+		method.addBodyLine("criteria.add(new Criterion(condition, values));");
+		method.addBodyLine("return;");
+		method.addBodyLine("}");
+		method.addBodyLine("List<Object> distinct = new ArrayList<Object>("
+			+ "new LinkedHashSet<Object>(values));");
+		method.addBodyLine("int size = distinct.size();");
+		method.addBodyLine("if (size <= " + chunkSize + ") {");
+		method.addBodyLine("criteria.add(new Criterion(condition, padList(distinct, 0, size)));");
+		method.addBodyLine("return;");
+		method.addBodyLine("}");
+		method.addBodyLine("List<List<Object>> chunks = new ArrayList<List<Object>>((size + "
+			+ (chunkSize - 1) + ") / " + chunkSize + ");");
+		method.addBodyLine("for (int i = 0; i < size; i += " + chunkSize + ") {");
+		method.addBodyLine("chunks.add(padList(distinct, i, Math.min(i + " + chunkSize
+			+ ", size)));");
+		method.addBodyLine("}");
+		method.addBodyLine("criteria.add(new Criterion(condition, chunks).chunked("
+			+ "condition.endsWith(\"not in\") ? \"and\" : \"or\"));");
+		innerClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PRIVATE);
+		method.setStatic(true);
+		method.setName("padList");
+		method.setReturnType(objectListType);
+		method.addParameter(new Parameter(objectListType, "values"));
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getIntInstance(), "from"));
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getIntInstance(), "to"));
+		if (padding)
+		{
+			method.addBodyLine("List<Object> list = values.subList(from, to);");
+			PluginSupport.addPaddingLines(method, "list", "Object", String.valueOf(chunkSize));
+			method.addBodyLine("return list;");
+		}
+		else
+		{
+			method.addBodyLine("return values.subList(from, to);");
+		}
+		innerClass.addMethod(method);
+	}
+
+	@Override
+	public boolean sqlMapExampleWhereClauseElementGenerated(XmlElement element,
+		IntrospectedTable introspectedTable)
+	{
+		XmlElement chooseElement = findChoose(element);
+		if (chooseElement != null)
+			addElement(chooseElement);
+		return true;
+	}
+
+	private XmlElement findChoose(XmlElement element)
+	{
+		if ("choose".equals(element.getName()))
+			return element;
+
+		for (Element child : element.getElements())
+		{
+			if (child instanceof XmlElement)
+				return findChoose((XmlElement)child);
+		}
+
+		return null;
+	}
+
+	private void addElement(XmlElement element)
+	{
+		// and (a in (?,?) or a in (?,?))
+		XmlElement itemElement = new XmlElement("foreach");
+		itemElement.addAttribute(new Attribute("collection", "listChunk"));
+		itemElement.addAttribute(new Attribute("item", "listItem"));
+		itemElement.addAttribute(new Attribute("open", "("));
+		itemElement.addAttribute(new Attribute("close", ")"));
+		itemElement.addAttribute(new Attribute("separator", ","));
+		itemElement.addElement(new TextElement("#{listItem}"));
+
+		XmlElement operatorElement = new XmlElement("if");
+		operatorElement.addAttribute(new Attribute("test", "chunkIndex != 0"));
+		operatorElement.addElement(new TextElement("${criterion.chunkOperator}"));
+
+		XmlElement chunkElement = new XmlElement("foreach");
+		chunkElement.addAttribute(new Attribute("collection", "criterion.value"));
+		chunkElement.addAttribute(new Attribute("item", "listChunk"));
+		chunkElement.addAttribute(new Attribute("index", "chunkIndex"));
+		chunkElement.addAttribute(new Attribute("open", "("));
+		chunkElement.addAttribute(new Attribute("close", ")"));
+		chunkElement.addElement(operatorElement);
+		chunkElement.addElement(new TextElement("${criterion.condition}"));
+		chunkElement.addElement(itemElement);
+
+		XmlElement whenElement = new XmlElement("when");
+		whenElement.addAttribute(new Attribute("test", "criterion.chunkedListValue"));
+		whenElement.addElement(new TextElement("and"));
+		whenElement.addElement(chunkElement);
+
+		element.addElement(whenElement);
+	}
+}
@@ -0,0 +1,453 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.mybatis.generator.api.IntrospectedColumn;
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.Field;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.Parameter;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+import org.mybatis.generator.api.dom.xml.Attribute;
+import org.mybatis.generator.api.dom.xml.Document;
+import org.mybatis.generator.api.dom.xml.Element;
+import org.mybatis.generator.api.dom.xml.TextElement;
+import org.mybatis.generator.api.dom.xml.XmlElement;
+import org.mybatis.generator.codegen.ibatis2.Ibatis2FormattingUtilities;
+import org.mybatis.generator.internal.util.JavaBeansUtil;
+
+/**
+ * This plugin adds keyset (a.k.a. seek method) pagination to the example class.<br>
+ * <code>example.seekAfter(id, subId).limit(100)</code> fetches the 100 rows following the given
+ * key, using <code>where (ID, SUB_ID) &gt; (?, ?) order by ID, SUB_ID limit ?</code>, so that
+ * deep pages cost as much as the first one as long as the key columns are indexed.<br>
+ * When seekAfter or limit is set, the rows are ordered by the key columns and
+ * <code>orderByClause</code> is ignored.<br>
+ * <br>
+ * The key columns are the primary key columns by default. They can be changed by the
+ * <code>keysetColumns</code> table property (comma-separated column names, which should be
+ * unique and not null as a whole). Tables without key columns are skipped.<br>
+ * <br>
+ * Plugin properties:
+ * <ul>
+ * <li><code>rowValueComparison</code> : set to false for databases that do not support the row
+ * value comparison (e.g. SQL Server). The condition is expanded to
+ * <code>(ID &gt; ?) or (ID = ? and SUB_ID &gt; ?)</code>. Default is true.</li>
+ * <li><code>limitClause</code> : <code>limit</code> (default) emits <code>limit ?</code>,
+ * <code>fetch</code> emits <code>fetch first ? rows only</code>.</li>
+ * </ul>
+ */
+public class KeysetPaginationPlugin extends PluginAdapter
+{
+	private static final String KEYSET_WHERE_CLAUSE_ID = "Keyset_Example_Where_Clause";
+
+	private boolean rowValueComparison;
+
+	private boolean fetchFirst;
+
+	public boolean validate(List<String> warnings)
+	{
+		rowValueComparison = !"false".equalsIgnoreCase(properties.getProperty(
+			"rowValueComparison", "true").trim());
+		String limitClause = properties.getProperty("limitClause", "limit").trim().toLowerCase();
+		if ("fetch".equals(limitClause))
+			fetchFirst = true;
+		else if (!"limit".equals(limitClause))
+		{
+			warnings.add("KeysetPaginationPlugin: unsupported limitClause '" + limitClause + "'");
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean modelExampleClassGenerated(TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		List<IntrospectedColumn> keyColumns = getKeysetColumns(introspectedTable);
+		if (keyColumns.isEmpty())
+			return true;
+
+		FullyQualifiedJavaType exampleType = topLevelClass.getType();
+		FullyQualifiedJavaType integerType = new FullyQualifiedJavaType("java.lang.Integer");
+		FullyQualifiedJavaType booleanType = FullyQualifiedJavaType.getBooleanPrimitiveInstance();
+
+		addField(topLevelClass, introspectedTable, booleanType, "keysetSeek");
+		for (IntrospectedColumn column : keyColumns)
+		{
+			// the wrapper type for a primitive column, as clear() resets the field to null
+			FullyQualifiedJavaType type = column.getFullyQualifiedJavaType();
+			addField(topLevelClass, introspectedTable, type.isPrimitive() ? type
+				.getPrimitiveTypeWrapper() : type, seekFieldName(column));
+		}
+		addField(topLevelClass, introspectedTable, integerType, "limit");
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(exampleType);
+		method.setName("seekAfter");
+		for (IntrospectedColumn column : keyColumns)
+		{
+			method.addParameter(new Parameter(column.getFullyQualifiedJavaType(),
+				column.getJavaProperty()));
+		}
+		for (IntrospectedColumn column : keyColumns)
+		{
+			if (column.getFullyQualifiedJavaType().isPrimitive())
+				continue;
+			method.addBodyLine("if (" + column.getJavaProperty() + " == null) {");
+			method.addBodyLine("throw new IllegalArgumentException(\"" + column.getJavaProperty()
+				+ " cannot be null\");");
+			method.addBodyLine("}");
+		}
+		for (IntrospectedColumn column : keyColumns)
+		{
+			method.addBodyLine("this." + seekFieldName(column) + " = " + column.getJavaProperty()
+				+ ";");
+		}
+		method.addBodyLine("this.keysetSeek = true;");
+		method.addBodyLine("return this;");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		// seekAfter(lastRowOfPreviousPage)
+		FullyQualifiedJavaType rowType = getRowType(introspectedTable, keyColumns);
+		topLevelClass.addImportedType(rowType);
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(exampleType);
+		method.setName("seekAfter");
+		method.addParameter(new Parameter(rowType, "row"));
+		StringBuilder sb = new StringBuilder();
+		sb.append("return seekAfter(");
+		for (int i = 0; i < keyColumns.size(); i++)
+		{
+			if (i > 0)
+				sb.append(", ");
+			IntrospectedColumn column = keyColumns.get(i);
+			sb.append("row.");
+			sb.append(JavaBeansUtil.getGetterMethodName(column.getJavaProperty(),
+				column.getFullyQualifiedJavaType()));
+			sb.append("()");
+		}
+		sb.append(");");
+		method.addBodyLine(sb.toString());
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(exampleType);
+		method.setName("limit");
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getIntInstance(), "limit"));
+		method.addBodyLine("if (limit <= 0) {");
+		method.addBodyLine("throw new IllegalArgumentException(\"limit must be positive\");");
+		method.addBodyLine("}");
+		method.addBodyLine("this.limit = limit;");
+		method.addBodyLine("return this;");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(booleanType);
+		method.setName("isKeysetPaging");
+		method.addBodyLine("return keysetSeek || limit != null;");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		for (Method m : topLevelClass.getMethods())
+		{
+			if ("clear".equals(m.getName()) && m.getParameters().isEmpty())
+			{
+				m.addBodyLine("keysetSeek = false;");
+				for (IntrospectedColumn column : keyColumns)
+				{
+					m.addBodyLine(seekFieldName(column) + " = null;");
+				}
+				m.addBodyLine("limit = null;");
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean sqlMapSelectByExampleWithBLOBsElementGenerated(XmlElement element,
+		IntrospectedTable introspectedTable)
+	{
+		addElements(element, introspectedTable);
+		return true;
+	}
+
+	@Override
+	public boolean sqlMapSelectByExampleWithoutBLOBsElementGenerated(XmlElement element,
+		IntrospectedTable introspectedTable)
+	{
+		addElements(element, introspectedTable);
+		return true;
+	}
+
+	@Override
+	public boolean sqlMapDocumentGenerated(Document document, IntrospectedTable introspectedTable)
+	{
+		List<IntrospectedColumn> keyColumns = getKeysetColumns(introspectedTable);
+		if (keyColumns.isEmpty())
+			return true;
+
+		// Copy of Example_Where_Clause with the seek condition AND-ed to the ORed criteria.
+		XmlElement root = document.getRootElement();
+		for (int i = 0; i < root.getElements().size(); i++)
+		{
+			Element elem = root.getElements().get(i);
+			if (!(elem instanceof XmlElement)
+				|| !hasId((XmlElement)elem, introspectedTable.getExampleWhereClauseId()))
+				continue;
+
+			XmlElement originalWhere = findChild((XmlElement)elem, "where");
+			if (originalWhere == null)
+				break;
+
+			XmlElement sql = new XmlElement("sql");
+			sql.addAttribute(new Attribute("id", KEYSET_WHERE_CLAUSE_ID));
+			context.getCommentGenerator().addComment(sql);
+
+			XmlElement where = new XmlElement("where");
+			XmlElement ifElement = new XmlElement("if");
+			ifElement.addAttribute(new Attribute("test", "keysetSeek"));
+			ifElement.addElement(new TextElement(getSeekCondition(keyColumns)));
+			where.addElement(ifElement);
+
+			XmlElement trim = new XmlElement("trim");
+			trim.addAttribute(new Attribute("prefix", "and ("));
+			trim.addAttribute(new Attribute("suffix", ")"));
+			for (Element child : originalWhere.getElements())
+			{
+				trim.addElement(child);
+			}
+			where.addElement(trim);
+			sql.addElement(where);
+
+			root.addElement(i + 1, sql);
+			break;
+		}
+		return true;
+	}
+
+	protected void addElements(XmlElement element, IntrospectedTable introspectedTable)
+	{
+		List<IntrospectedColumn> keyColumns = getKeysetColumns(introspectedTable);
+		if (keyColumns.isEmpty())
+			return;
+
+		List<Element> elements = element.getElements();
+		for (int i = 0; i < elements.size(); i++)
+		{
+			Element elem = elements.get(i);
+			if (!(elem instanceof XmlElement))
+				continue;
+			XmlElement ifElement = (XmlElement)elem;
+			XmlElement include = findChild(ifElement, "include");
+			if (include != null)
+			{
+				// where clause
+				for (Attribute attribute : include.getAttributes())
+				{
+					if ("refid".equals(attribute.getName())
+						&& introspectedTable.getExampleWhereClauseId().equals(attribute.getValue()))
+					{
+						XmlElement newInclude = new XmlElement("include");
+						newInclude.addAttribute(new Attribute("refid", KEYSET_WHERE_CLAUSE_ID));
+						ifElement.getElements().set(ifElement.getElements().indexOf(include),
+							newInclude);
+					}
+				}
+			}
+			else if (hasAttribute(ifElement, "test", "orderByClause != null"))
+			{
+				// order by clause
+				StringBuilder orderBy = new StringBuilder();
+				orderBy.append("order by ");
+				for (int j = 0; j < keyColumns.size(); j++)
+				{
+					if (j > 0)
+						orderBy.append(", ");
+					orderBy.append(Ibatis2FormattingUtilities.getAliasedEscapedColumnName(keyColumns
+						.get(j)));
+				}
+
+				XmlElement whenElement = new XmlElement("when");
+				whenElement.addAttribute(new Attribute("test", "keysetPaging"));
+				whenElement.addElement(new TextElement(orderBy.toString()));
+				XmlElement limitElement = new XmlElement("if");
+				limitElement.addAttribute(new Attribute("test", "limit != null"));
+				limitElement.addElement(new TextElement(fetchFirst
+					? "fetch first #{limit,jdbcType=INTEGER} rows only"
+					: "limit #{limit,jdbcType=INTEGER}"));
+				whenElement.addElement(limitElement);
+
+				XmlElement otherwiseElement = new XmlElement("when");
+				otherwiseElement.addAttribute(new Attribute("test", "orderByClause != null"));
+				for (Element child : ifElement.getElements())
+				{
+					otherwiseElement.addElement(child);
+				}
+
+				XmlElement chooseElement = new XmlElement("choose");
+				chooseElement.addElement(whenElement);
+				chooseElement.addElement(otherwiseElement);
+				elements.set(i, chooseElement);
+			}
+		}
+	}
+
+	private String getSeekCondition(List<IntrospectedColumn> keyColumns)
+	{
+		StringBuilder sb = new StringBuilder();
+		if (rowValueComparison && keyColumns.size() > 1)
+		{
+			// (k1, k2) > (?, ?)
+			StringBuilder values = new StringBuilder();
+			sb.append('(');
+			for (int i = 0; i < keyColumns.size(); i++)
+			{
+				if (i > 0)
+				{
+					sb.append(", ");
+					values.append(", ");
+				}
+				sb.append(Ibatis2FormattingUtilities.getAliasedEscapedColumnName(keyColumns.get(i)));
+				values.append(getParameterClause(keyColumns.get(i)));
+			}
+			sb.append(") &gt; (").append(values).append(')');
+		}
+		else
+		{
+			// (k1 > ?) or (k1 = ? and k2 > ?)
+			sb.append('(');
+			for (int i = 0; i < keyColumns.size(); i++)
+			{
+				if (i > 0)
+					sb.append(" or ");
+				sb.append('(');
+				for (int j = 0; j < i; j++)
+				{
+					sb.append(Ibatis2FormattingUtilities.getAliasedEscapedColumnName(keyColumns
+						.get(j)));
+					sb.append(" = ").append(getParameterClause(keyColumns.get(j))).append(" and ");
+				}
+				sb.append(Ibatis2FormattingUtilities.getAliasedEscapedColumnName(keyColumns.get(i)));
+				sb.append(" &gt; ").append(getParameterClause(keyColumns.get(i)));
+				sb.append(')');
+			}
+			sb.append(')');
+		}
+		return sb.toString();
+	}
+
+	private String getParameterClause(IntrospectedColumn column)
+	{
+		return "#{" + seekFieldName(column) + ",jdbcType=" + column.getJdbcTypeName() + "}";
+	}
+
+	/**
+	 * The primary key class if it has all the key columns, the base record class otherwise.
+	 */
+	private FullyQualifiedJavaType getRowType(IntrospectedTable introspectedTable,
+		List<IntrospectedColumn> keyColumns)
+	{
+		if (introspectedTable.getRules().generatePrimaryKeyClass()
+			&& introspectedTable.getPrimaryKeyColumns().containsAll(keyColumns))
+			return new FullyQualifiedJavaType(introspectedTable.getPrimaryKeyType());
+		return new FullyQualifiedJavaType(introspectedTable.getBaseRecordType());
+	}
+
+	private List<IntrospectedColumn> getKeysetColumns(IntrospectedTable introspectedTable)
+	{
+		String keysetColumns = introspectedTable.getTableConfigurationProperty("keysetColumns");
+		if (keysetColumns == null || keysetColumns.trim().length() == 0)
+			return introspectedTable.getPrimaryKeyColumns();
+
+		List<IntrospectedColumn> columns = new ArrayList<IntrospectedColumn>();
+		for (String columnName : keysetColumns.split(","))
+		{
+			IntrospectedColumn column = introspectedTable.getColumn(columnName.trim());
+			// BLOB columns are not in the base record class
+			if (column == null || column.isBLOBColumn())
+				return Collections.emptyList();
+			columns.add(column);
+		}
+		return columns;
+	}
+
+	private String seekFieldName(IntrospectedColumn column)
+	{
+		String property = column.getJavaProperty();
+		return "seekAfter" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+	}
+
+	private void addField(TopLevelClass topLevelClass, IntrospectedTable introspectedTable,
+		FullyQualifiedJavaType type, String name)
+	{
+		Field field = new Field();
+		field.setVisibility(JavaVisibility.PROTECTED);
+		field.setType(type);
+		field.setName(name);
+		context.getCommentGenerator().addFieldComment(field, introspectedTable);
+		topLevelClass.addField(field);
+
+		// MyBatis reads the parameters via getters
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(type);
+		method.setName(JavaBeansUtil.getGetterMethodName(name, type));
+		method.addBodyLine("return " + name + ";");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+	}
+
+	private XmlElement findChild(XmlElement element, String name)
+	{
+		for (Element child : element.getElements())
+		{
+			if (child instanceof XmlElement && name.equals(((XmlElement)child).getName()))
+				return (XmlElement)child;
+		}
+		return null;
+	}
+
+	private boolean hasId(XmlElement element, String id)
+	{
+		return hasAttribute(element, "id", id);
+	}
+
+	private boolean hasAttribute(XmlElement element, String name, String value)
+	{
+		for (Attribute attribute : element.getAttributes())
+		{
+			if (name.equals(attribute.getName()))
+				return value.equals(attribute.getValue());
+		}
+		return false;
+	}
+}
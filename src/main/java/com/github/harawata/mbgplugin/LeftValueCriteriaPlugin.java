@@ -18,6 +18,7 @@ package com.github.harawata.mbgplugin;
 
 import java.util.List;
 
+import org.mybatis.generator.api.IntrospectedColumn;
 import org.mybatis.generator.api.IntrospectedTable;
 import org.mybatis.generator.api.PluginAdapter;
 import org.mybatis.generator.api.dom.java.Field;
@@ -31,6 +32,8 @@ import org.mybatis.generator.api.dom.xml.Attribute;
 import org.mybatis.generator.api.dom.xml.Element;
 import org.mybatis.generator.api.dom.xml.TextElement;
 import org.mybatis.generator.api.dom.xml.XmlElement;
+import org.mybatis.generator.codegen.ibatis2.Ibatis2FormattingUtilities;
+import org.mybatis.generator.internal.util.JavaBeansUtil;
 
 /**
  * This plugin adds addCriterionLeftValue() method to the GeneratedCriteria inner class of the
@@ -38,16 +41,30 @@ import org.mybatis.generator.api.dom.xml.XmlElement;
  * This allows you to add a condition like <code>? in (col_a, col_b, col_c)</code> by adding a
  * new method like
  * <code>addCriterionLeftValue("in (col_a, col_b, col_c)", value, "propertyName")</code> to the
- * Criteria inner class of the generated example class.
+ * Criteria inner class of the generated example class.<br>
+ * <br>
+ * It also adds addCriterionTuple() method which adds a multi-column IN condition like
+ * <code>(col_a, col_b) in ((?,?),(?,?))</code> from a list of <code>Object[]</code>.<br>
+ * For a table with a composite primary key, andPrimaryKeyIn(List) method is added to look up
+ * the rows by a list of keys.<br>
+ * Long lists are split into OR-ed IN lists of <code>tupleChunkSize</code> tuples (1000 by
+ * default), e.g. for the limit of 1000 elements per IN list on Oracle. Note that the chunks
+ * are in a single statement, so the number of bind parameters (tuples times columns) is not
+ * bounded, which may exceed the limit of the database (e.g. 2100 on SQL Server). To look up
+ * many keys in separate statements, use the XxxMapperBatchSelect helper generated by
+ * SelectByPrimaryKeysPlugin.
  * 
  * @author Iwao AVE!
  */
 public class LeftValueCriteriaPlugin extends PluginAdapter
 {
+	private int tupleChunkSize;
 
-	public boolean validate(List<String> arg0)
+	public boolean validate(List<String> warnings)
 	{
-		return true;
+		tupleChunkSize = PluginSupport.getPositiveIntProperty(properties, "tupleChunkSize", 1000,
+			"LeftValueCriteriaPlugin", warnings);
+		return tupleChunkSize > 0;
 	}
 
 	@Override
@@ -58,7 +75,7 @@ public class LeftValueCriteriaPlugin extends PluginAdapter
 		{
 			if ("GeneratedCriteria".equals(innerClass.getType().getShortName()))
 			{
-				modifyGeneratedCriteria(introspectedTable, innerClass);
+				modifyGeneratedCriteria(introspectedTable, topLevelClass, innerClass);
 			}
 			else if ("Criterion".equals(innerClass.getType().getShortName()))
 			{
@@ -83,6 +100,43 @@ public class LeftValueCriteriaPlugin extends PluginAdapter
 		method.addBodyLine("return leftValue;");
 		innerClass.addMethod(method);
 
+		field = new Field();
+		field.setVisibility(JavaVisibility.PRIVATE);
+		field.setType(FullyQualifiedJavaType.getBooleanPrimitiveInstance());
+		field.setName("tupleValue");
+		innerClass.addField(field);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setName("isTupleValue");
+		method.setReturnType(FullyQualifiedJavaType.getBooleanPrimitiveInstance());
+		method.addBodyLine("return tupleValue;");
+		innerClass.addMethod(method);
+
+		Method constructor0 = new Method();
+		constructor0.setConstructor(true);
+		constructor0.setName("Criterion");
+		constructor0.setVisibility(JavaVisibility.PROTECTED);
+		constructor0.addParameter(new Parameter(FullyQualifiedJavaType.getStringInstance(),
+			"condition"));
+		constructor0.addParameter(new Parameter(FullyQualifiedJavaType.getObjectInstance(),
+			"value"));
+		constructor0.addParameter(new Parameter(FullyQualifiedJavaType.getStringInstance(),
+			"typeHandler"));
+		constructor0.addParameter(new Parameter(
+			FullyQualifiedJavaType.getBooleanPrimitiveInstance(), "isLeftValue"));
+		constructor0.addParameter(new Parameter(
+			FullyQualifiedJavaType.getBooleanPrimitiveInstance(), "isTupleValue"));
+		constructor0.addBodyLine("super();");
+		constructor0.addBodyLine("this.condition = condition;");
+		constructor0.addBodyLine("this.value = value;");
+		constructor0.addBodyLine("this.typeHandler = typeHandler;");
+		constructor0.addBodyLine("if (isLeftValue){ this.leftValue = true; }");
+		constructor0.addBodyLine("else if (isTupleValue){ this.tupleValue = true; }");
+		constructor0.addBodyLine("else if (value instanceof List<?>){ this.listValue = true; }");
+		constructor0.addBodyLine("else {this.singleValue = true;}");
+		innerClass.addMethod(constructor0);
+
 		Method constructor1 = new Method();
 		constructor1.setConstructor(true);
 		constructor1.setName("Criterion");
@@ -95,13 +149,7 @@ public class LeftValueCriteriaPlugin extends PluginAdapter
 			"typeHandler"));
 		constructor1.addParameter(new Parameter(
 			FullyQualifiedJavaType.getBooleanPrimitiveInstance(), "isLeftValue"));
-		constructor1.addBodyLine("super();");
-		constructor1.addBodyLine("this.condition = condition;");
-		constructor1.addBodyLine("this.value = value;");
-		constructor1.addBodyLine("this.typeHandler = typeHandler;");
-		constructor1.addBodyLine("if (isLeftValue){ this.leftValue = true; }");
-		constructor1.addBodyLine("else if (value instanceof List<?>){ this.listValue = true; }");
-		constructor1.addBodyLine("else {this.singleValue = true;}");
+		constructor1.addBodyLine("this(condition, value, typeHandler, isLeftValue, false);");
 		innerClass.addMethod(constructor1);
 
 		Method constructor2 = new Method();
@@ -119,7 +167,7 @@ public class LeftValueCriteriaPlugin extends PluginAdapter
 	}
 
 	private void modifyGeneratedCriteria(IntrospectedTable introspectedTable,
-		InnerClass innerClass)
+		TopLevelClass topLevelClass, InnerClass innerClass)
 	{
 		Method method = new Method();
 		method.setVisibility(JavaVisibility.PROTECTED);
@@ -136,6 +184,90 @@ public class LeftValueCriteriaPlugin extends PluginAdapter
 		method.addBodyLine("criteria.add(new Criterion(condition, value, true));");
 
 		innerClass.addMethod(method);
+
+		FullyQualifiedJavaType tupleListType = FullyQualifiedJavaType.getNewListInstance();
+		tupleListType.addTypeArgument(new FullyQualifiedJavaType("java.lang.Object[]"));
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PROTECTED);
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getStringInstance(),
+			"condition"));
+		method.addParameter(new Parameter(tupleListType, "values"));
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getStringInstance(),
+			"property"));
+		method.setName("addCriterionTuple");
+
+		method.addBodyLine("if (values == null) {");
+		method.addBodyLine("throw new RuntimeException(\"Value for \" + property + \" cannot be null\");");
+		method.addBodyLine("}");
+		method.addBodyLine("if (values.isEmpty()) {");
+		method.addBodyLine("throw new RuntimeException(\"Value list for \" + property + \" cannot be empty\");");
+		method.addBodyLine("}");
+		method.addBodyLine("int size = values.size();");
+		method.addBodyLine("List<List<Object[]>> chunks = new ArrayList<List<Object[]>>((size + "
+			+ (tupleChunkSize - 1) + ") / " + tupleChunkSize + ");");
+		method.addBodyLine("for (int i = 0; i < size; i += " + tupleChunkSize + ") {");
+		method.addBodyLine("chunks.add(values.subList(i, Math.min(i + " + tupleChunkSize
+			+ ", size)));");
+		method.addBodyLine("}");
+		method.addBodyLine("criteria.add(new Criterion(condition, chunks, null, false, true));");
+
+		innerClass.addMethod(method);
+
+		List<IntrospectedColumn> primaryKeyColumns = introspectedTable.getPrimaryKeyColumns();
+		if (primaryKeyColumns.size() > 1)
+		{
+			addPrimaryKeyInMethod(introspectedTable, topLevelClass, innerClass, primaryKeyColumns);
+		}
+	}
+
+	private void addPrimaryKeyInMethod(IntrospectedTable introspectedTable,
+		TopLevelClass topLevelClass, InnerClass innerClass,
+		List<IntrospectedColumn> primaryKeyColumns)
+	{
+		FullyQualifiedJavaType keyType = new FullyQualifiedJavaType(introspectedTable
+			.getRules()
+			.generatePrimaryKeyClass() ? introspectedTable.getPrimaryKeyType()
+			: introspectedTable.getBaseRecordType());
+		topLevelClass.addImportedType(keyType);
+		FullyQualifiedJavaType keyListType = FullyQualifiedJavaType.getNewListInstance();
+		keyListType.addTypeArgument(new FullyQualifiedJavaType("? extends "
+			+ keyType.getShortName()));
+
+		StringBuilder condition = new StringBuilder("(");
+		StringBuilder tuple = new StringBuilder("values.add(new Object[] { ");
+		for (int i = 0; i < primaryKeyColumns.size(); i++)
+		{
+			IntrospectedColumn column = primaryKeyColumns.get(i);
+			if (i > 0)
+			{
+				condition.append(", ");
+				tuple.append(", ");
+			}
+			condition.append(Ibatis2FormattingUtilities.getAliasedActualColumnName(column));
+			tuple.append("key.");
+			tuple.append(JavaBeansUtil.getGetterMethodName(column.getJavaProperty(),
+				column.getFullyQualifiedJavaType()));
+			tuple.append("()");
+		}
+		condition.append(") in");
+		tuple.append(" });");
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(FullyQualifiedJavaType.getCriteriaInstance());
+		method.setName("andPrimaryKeyIn");
+		method.addParameter(new Parameter(keyListType, "keys"));
+		method.addBodyLine("List<Object[]> values = null;");
+		method.addBodyLine("if (keys != null) {");
+		method.addBodyLine("values = new ArrayList<Object[]>(keys.size());");
+		method.addBodyLine("for (" + keyType.getShortName() + " key : keys) {");
+		method.addBodyLine(tuple.toString());
+		method.addBodyLine("}");
+		method.addBodyLine("}");
+		method.addBodyLine("addCriterionTuple(\"" + condition + "\", values, \"primaryKey\");");
+		method.addBodyLine("return (Criteria)this;");
+		innerClass.addMethod(method);
 	}
 
 	@Override
@@ -171,6 +303,39 @@ public class LeftValueCriteriaPlugin extends PluginAdapter
 		ifElement.addElement(new TextElement("and #{criterion.value} ${criterion.condition}"));
 
 		element.addElement(ifElement);
+
+		// and ((a, b) in ((?,?),(?,?)) or (a, b) in ((?,?)))
+		XmlElement tupleItemElement = new XmlElement("foreach");
+		tupleItemElement.addAttribute(new Attribute("collection", "tuple"));
+		tupleItemElement.addAttribute(new Attribute("item", "tupleItem"));
+		tupleItemElement.addAttribute(new Attribute("open", "("));
+		tupleItemElement.addAttribute(new Attribute("close", ")"));
+		tupleItemElement.addAttribute(new Attribute("separator", ","));
+		tupleItemElement.addElement(new TextElement("#{tupleItem}"));
+
+		XmlElement tupleElement = new XmlElement("foreach");
+		tupleElement.addAttribute(new Attribute("collection", "tupleChunk"));
+		tupleElement.addAttribute(new Attribute("item", "tuple"));
+		tupleElement.addAttribute(new Attribute("open", "("));
+		tupleElement.addAttribute(new Attribute("close", ")"));
+		tupleElement.addAttribute(new Attribute("separator", ","));
+		tupleElement.addElement(tupleItemElement);
+
+		XmlElement chunkElement = new XmlElement("foreach");
+		chunkElement.addAttribute(new Attribute("collection", "criterion.value"));
+		chunkElement.addAttribute(new Attribute("item", "tupleChunk"));
+		chunkElement.addAttribute(new Attribute("open", "("));
+		chunkElement.addAttribute(new Attribute("close", ")"));
+		chunkElement.addAttribute(new Attribute("separator", "or"));
+		chunkElement.addElement(new TextElement("${criterion.condition}"));
+		chunkElement.addElement(tupleElement);
+
+		XmlElement whenElement = new XmlElement("when");
+		whenElement.addAttribute(new Attribute("test", "criterion.tupleValue"));
+		whenElement.addElement(new TextElement("and"));
+		whenElement.addElement(chunkElement);
+
+		element.addElement(whenElement);
 	}
 
 }
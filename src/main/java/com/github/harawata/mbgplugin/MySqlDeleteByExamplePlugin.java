@@ -16,29 +16,79 @@
 
 package com.github.harawata.mbgplugin;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.mybatis.generator.api.FullyQualifiedTable;
+import org.mybatis.generator.api.GeneratedJavaFile;
+import org.mybatis.generator.api.IntrospectedColumn;
 import org.mybatis.generator.api.IntrospectedTable;
 import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.Interface;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.Parameter;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+import org.mybatis.generator.api.dom.xml.Attribute;
+import org.mybatis.generator.api.dom.xml.Document;
 import org.mybatis.generator.api.dom.xml.Element;
 import org.mybatis.generator.api.dom.xml.TextElement;
 import org.mybatis.generator.api.dom.xml.XmlElement;
+import org.mybatis.generator.codegen.ibatis2.Ibatis2FormattingUtilities;
+import org.mybatis.generator.logging.Log;
+import org.mybatis.generator.logging.LogFactory;
 
 /**
  * When you (1) use MySQL as a data source and (2) configure mybatis generator to use an alias
  * for a table name, the default implementation of deleteByExample results in an syntax error
  * because of <a href="http://bugs.mysql.com/bug.php?id=12811">MySQL Bug #12811</a>.<br>
- * This plugin tweaks the DELETE statement to workaround the issue.
+ * This plugin tweaks the DELETE statement to workaround the issue.<br>
+ * <br>
+ * It also adds deleteByExampleLimited(example, limit) to the mapper, which deletes at most
+ * <code>limit</code> rows, and XxxMapperChunkedDelete class which calls it repeatedly until no
+ * row is deleted. This keeps row locks, undo logs and replication lag small when purging
+ * a large number of rows.<br>
+ * As MySQL does not allow LIMIT in the multiple-table syntax, when the table has an alias, the
+ * rows are deleted by the primary key selected in a derived table. For a table with an alias
+ * but no primary key, deleteByExampleLimited is not generated (with a warning) as MySQL
+ * accepts LIMIT with an aliased single table only since 8.0.16.<br>
+ * The default chunk size and pause between chunks (in milliseconds) can be changed by
+ * <code>deleteChunkSize</code> (1000 by default) and <code>deletePauseMillis</code> (0 by
+ * default) properties.
  * 
  * @author Iwao AVE!
  */
 public class MySqlDeleteByExamplePlugin extends PluginAdapter
 {
+	private static final Log log = LogFactory.getLog(MySqlDeleteByExamplePlugin.class);
+
+	private static final String DELETE_LIMITED = "deleteByExampleLimited";
+
+	private int deleteChunkSize;
+
+	private long deletePauseMillis;
 
 	public boolean validate(List<String> warnings)
 	{
-		return true;
+		deleteChunkSize = PluginSupport.getPositiveIntProperty(properties, "deleteChunkSize", 1000,
+			"MySqlDeleteByExamplePlugin", warnings);
+		String pauseMillis = properties.getProperty("deletePauseMillis", "0");
+		try
+		{
+			deletePauseMillis = Long.parseLong(pauseMillis.trim());
+		}
+		catch (NumberFormatException e)
+		{
+			deletePauseMillis = -1L;
+		}
+		if (deletePauseMillis < 0)
+		{
+			warnings.add("MySqlDeleteByExamplePlugin: invalid deletePauseMillis '" + pauseMillis
+				+ "'");
+			return false;
+		}
+		return deleteChunkSize > 0;
 	}
 
 	@Override
@@ -56,6 +106,259 @@ public class MySqlDeleteByExamplePlugin extends PluginAdapter
 		return true;
 	}
 
+	@Override
+	public boolean sqlMapDocumentGenerated(Document document,
+		IntrospectedTable introspectedTable)
+	{
+		if (!isDeleteLimitedEnabled(introspectedTable))
+			return true;
+
+		XmlElement answer = new XmlElement("delete");
+		answer.addAttribute(new Attribute("id", DELETE_LIMITED));
+		answer.addAttribute(new Attribute("parameterType", "map"));
+		context.getCommentGenerator().addComment(answer);
+
+		FullyQualifiedTable table = introspectedTable.getFullyQualifiedTable();
+		String alias = table.getAlias();
+		List<IntrospectedColumn> primaryKeyColumns = introspectedTable.getPrimaryKeyColumns();
+		// the tables with an alias but no primary key are skipped
+		boolean derivedTable = alias != null && alias.length() > 0;
+
+		if (derivedTable)
+		{
+			// delete from tbl where (pk) in (select pk from (select a.pk from tbl a where ... limit ?) t)
+			StringBuilder columns = new StringBuilder();
+			StringBuilder aliasedColumns = new StringBuilder();
+			for (IntrospectedColumn column : primaryKeyColumns)
+			{
+				if (columns.length() > 0)
+				{
+					columns.append(", ");
+					aliasedColumns.append(", ");
+				}
+				columns.append(Ibatis2FormattingUtilities.getEscapedColumnName(column));
+				aliasedColumns.append(Ibatis2FormattingUtilities.getAliasedEscapedColumnName(column));
+			}
+			String key = primaryKeyColumns.size() > 1 ? "(" + columns + ")" : columns.toString();
+
+			StringBuilder sb = new StringBuilder();
+			sb.append("delete from ");
+			sb.append(table.getFullyQualifiedTableNameAtRuntime());
+			sb.append(" where ").append(key);
+			sb.append(" in (select ").append(columns);
+			sb.append(" from (select ").append(aliasedColumns);
+			sb.append(" from ").append(table.getAliasedFullyQualifiedTableNameAtRuntime());
+			answer.addElement(new TextElement(sb.toString()));
+		}
+		else
+		{
+			answer.addElement(new TextElement("delete from "
+				+ table.getAliasedFullyQualifiedTableNameAtRuntime()));
+		}
+
+		XmlElement ifElement = new XmlElement("if");
+		ifElement.addAttribute(new Attribute("test", "example != null"));
+		XmlElement includeElement = new XmlElement("include");
+		includeElement.addAttribute(new Attribute("refid",
+			introspectedTable.getMyBatis3UpdateByExampleWhereClauseId()));
+		ifElement.addElement(includeElement);
+		answer.addElement(ifElement);
+
+		answer.addElement(new TextElement(derivedTable ? "limit #{limit,jdbcType=INTEGER}) t)"
+			: "limit #{limit,jdbcType=INTEGER}"));
+
+		// put it after deleteByExample
+		XmlElement root = document.getRootElement();
+		int index = root.getElements().size();
+		for (int i = 0; i < root.getElements().size(); i++)
+		{
+			Element elem = root.getElements().get(i);
+			if (elem instanceof XmlElement && isDeleteByExample((XmlElement)elem, introspectedTable))
+			{
+				index = i + 1;
+				break;
+			}
+		}
+		root.addElement(index, answer);
+		return true;
+	}
+
+	@Override
+	public boolean clientGenerated(Interface interfaze, TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		if (!isDeleteLimitedEnabled(introspectedTable))
+		{
+			if (introspectedTable.getRules().generateDeleteByExample()
+				&& hasAliasWithoutPrimaryKey(introspectedTable))
+				log.warn("MySqlDeleteByExamplePlugin: " + DELETE_LIMITED + " is not generated for "
+					+ introspectedTable.getFullyQualifiedTable()
+					+ " as it has an alias but no primary key");
+			return true;
+		}
+
+		FullyQualifiedJavaType exampleType = new FullyQualifiedJavaType(
+			introspectedTable.getExampleType());
+		interfaze.addImportedType(exampleType);
+		interfaze.addImportedType(new FullyQualifiedJavaType("org.apache.ibatis.annotations.Param"));
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName(DELETE_LIMITED);
+		method.addParameter(new Parameter(exampleType, "example", "@Param(\"example\")"));
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getIntInstance(), "limit",
+			"@Param(\"limit\")"));
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		interfaze.addMethod(method);
+		return true;
+	}
+
+	@Override
+	public List<GeneratedJavaFile> contextGenerateAdditionalJavaFiles(
+		IntrospectedTable introspectedTable)
+	{
+		List<GeneratedJavaFile> answer = new ArrayList<GeneratedJavaFile>();
+		if (!isDeleteLimitedEnabled(introspectedTable))
+			return answer;
+
+		FullyQualifiedJavaType mapperType = new FullyQualifiedJavaType(
+			introspectedTable.getMyBatis3JavaMapperType());
+		FullyQualifiedJavaType exampleType = new FullyQualifiedJavaType(
+			introspectedTable.getExampleType());
+		FullyQualifiedJavaType sessionType = new FullyQualifiedJavaType(
+			"org.apache.ibatis.session.SqlSession");
+
+		TopLevelClass topLevelClass = PluginSupport.createMapperHelperClass(context,
+			introspectedTable, "ChunkedDelete");
+		topLevelClass.addImportedType(exampleType);
+		topLevelClass.addImportedType(sessionType);
+		topLevelClass.addJavaDocLine("/**");
+		topLevelClass.addJavaDocLine(" * Deletes the rows matching the example in chunks of at most"
+			+ " <code>chunkSize</code> rows");
+		topLevelClass.addJavaDocLine(" * until no row is deleted.");
+		topLevelClass.addJavaDocLine(" * <p>");
+		topLevelClass.addJavaDocLine(" * The methods taking a mapper do not commit, so each chunk is"
+			+ " committed only if the");
+		topLevelClass.addJavaDocLine(" * session auto-commits. Inside a managed transaction (e.g."
+			+ " Spring's");
+		topLevelClass.addJavaDocLine(" * <code>@Transactional</code>), all the chunks are deleted in"
+			+ " a single transaction,");
+		topLevelClass.addJavaDocLine(" * which holds the locks and the undo log of the whole purge"
+			+ " until it ends. Use the");
+		topLevelClass.addJavaDocLine(" * method taking a <code>SqlSession</code>, which commits after"
+			+ " each chunk, outside of");
+		topLevelClass.addJavaDocLine(" * a managed transaction to keep the transactions small.");
+		topLevelClass.addJavaDocLine(" */");
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setStatic(true);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName("deleteByExample");
+		method.addParameter(new Parameter(mapperType, "mapper"));
+		method.addParameter(new Parameter(exampleType, "example"));
+		method.addBodyLine("return deleteByExample(mapper, example, " + deleteChunkSize + ", "
+			+ deletePauseMillis + "L);");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setStatic(true);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName("deleteByExample");
+		method.addParameter(new Parameter(mapperType, "mapper"));
+		method.addParameter(new Parameter(exampleType, "example"));
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getIntInstance(), "chunkSize"));
+		method.addParameter(new Parameter(new FullyQualifiedJavaType("long"), "pauseMillis"));
+		method.addBodyLine("return deleteByExample(mapper, null, example, chunkSize, pauseMillis);");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		// commits the session after each chunk
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setStatic(true);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName("deleteByExample");
+		method.addParameter(new Parameter(sessionType, "sqlSession"));
+		method.addParameter(new Parameter(exampleType, "example"));
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getIntInstance(), "chunkSize"));
+		method.addParameter(new Parameter(new FullyQualifiedJavaType("long"), "pauseMillis"));
+		method.addBodyLine("return deleteByExample(sqlSession.getMapper("
+			+ mapperType.getShortName() + ".class), sqlSession, example, chunkSize, pauseMillis);");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PRIVATE);
+		method.setStatic(true);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName("deleteByExample");
+		method.addParameter(new Parameter(mapperType, "mapper"));
+		method.addParameter(new Parameter(sessionType, "sqlSession"));
+		method.addParameter(new Parameter(exampleType, "example"));
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getIntInstance(), "chunkSize"));
+		method.addParameter(new Parameter(new FullyQualifiedJavaType("long"), "pauseMillis"));
+		method.addBodyLine("int total = 0;");
+		method.addBodyLine("int deleted;");
+		method.addBodyLine("do {");
+		method.addBodyLine("deleted = mapper." + DELETE_LIMITED + "(example, chunkSize);");
+		method.addBodyLine("total += deleted;");
+		method.addBodyLine("if (sqlSession != null) {");
+		method.addBodyLine("sqlSession.commit();");
+		method.addBodyLine("}");
+		method.addBodyLine("if (deleted > 0 && pauseMillis > 0) {");
+		method.addBodyLine("try {");
+		method.addBodyLine("Thread.sleep(pauseMillis);");
+		method.addBodyLine("} catch (InterruptedException e) {");
+		method.addBodyLine("Thread.currentThread().interrupt();");
+		method.addBodyLine("break;");
+		method.addBodyLine("}");
+		method.addBodyLine("}");
+		method.addBodyLine("} while (deleted > 0);");
+		method.addBodyLine("return total;");
+		topLevelClass.addMethod(method);
+
+		answer.add(PluginSupport.createMapperHelperFile(context, topLevelClass));
+		return answer;
+	}
+
+	/**
+	 * deleteByExampleLimited requires the XML mapper, the mapper interface and
+	 * Update_By_Example_Where_Clause, and the primary key if the table has an alias.
+	 */
+	private boolean isDeleteLimitedEnabled(IntrospectedTable introspectedTable)
+	{
+		return introspectedTable.getRules().generateDeleteByExample()
+			&& introspectedTable.getRules().generateMyBatis3UpdateByExampleWhereClause()
+			&& PluginSupport.hasMapperInterface(context, introspectedTable)
+			&& !hasAliasWithoutPrimaryKey(introspectedTable);
+	}
+
+	/**
+	 * The derived table cannot be used, and <code>delete from tbl a ... limit ?</code> is
+	 * invalid before MySQL 8.0.16.
+	 */
+	private boolean hasAliasWithoutPrimaryKey(IntrospectedTable introspectedTable)
+	{
+		String alias = introspectedTable.getFullyQualifiedTable().getAlias();
+		return alias != null && alias.length() > 0
+			&& introspectedTable.getPrimaryKeyColumns().isEmpty();
+	}
+
+	private boolean isDeleteByExample(XmlElement element, IntrospectedTable introspectedTable)
+	{
+		for (Attribute attribute : element.getAttributes())
+		{
+			if ("id".equals(attribute.getName()))
+				return introspectedTable.getDeleteByExampleStatementId().equals(
+					attribute.getValue());
+		}
+		return false;
+	}
+
 	private void replaceDeleteStatement(XmlElement element, FullyQualifiedTable table, int index)
 	{
 		StringBuilder sb = new StringBuilder();
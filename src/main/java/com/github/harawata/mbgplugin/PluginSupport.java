@@ -0,0 +1,135 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.mybatis.generator.api.GeneratedJavaFile;
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+import org.mybatis.generator.config.Context;
+
+/**
+ * Code shared by the plugins that chunk lists and generate helper classes next to the mapper
+ * interface (e.g. XxxMapperBatchInsert).
+ */
+final class PluginSupport
+{
+	private PluginSupport()
+	{
+		super();
+	}
+
+	/**
+	 * Returns the value of the property, or -1 after adding a warning if it is not a positive
+	 * integer.
+	 */
+	static int getPositiveIntProperty(Properties properties, String name, int defaultValue,
+		String pluginName, List<String> warnings)
+	{
+		String value = properties.getProperty(name);
+		if (value == null || value.trim().length() == 0)
+			return defaultValue;
+		int result;
+		try
+		{
+			result = Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e)
+		{
+			result = 0;
+		}
+		if (result <= 0)
+		{
+			warnings.add(pluginName + ": invalid " + name + " '" + value + "'");
+			return -1;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the value of the property; anything but true/false means the default.
+	 */
+	static boolean getBooleanProperty(Properties properties, String name, boolean defaultValue)
+	{
+		String value = properties.getProperty(name);
+		if (value == null)
+			return defaultValue;
+		value = value.trim();
+		return defaultValue ? !"false".equalsIgnoreCase(value) : "true".equalsIgnoreCase(value);
+	}
+
+	/**
+	 * Adds the lines that pad the non-empty list in the <code>list</code> variable to the next
+	 * power of two (at most <code>maxSize</code>) by repeating its last element, so that the
+	 * number of distinct statements stays small. The variable is replaced by a copy if padded.
+	 */
+	static void addPaddingLines(Method method, String list, String elementType, String maxSize)
+	{
+		method.addBodyLine("int padded = " + list + ".size() <= 1 ? " + list + ".size()"
+			+ " : Math.min(Integer.highestOneBit(" + list + ".size() - 1) << 1, " + maxSize + ");");
+		method.addBodyLine("if (padded > " + list + ".size()) {");
+		method.addBodyLine("List<" + elementType + "> copy = new ArrayList<" + elementType
+			+ ">(padded);");
+		method.addBodyLine("copy.addAll(" + list + ");");
+		method.addBodyLine(elementType + " last = " + list + ".get(" + list + ".size() - 1);");
+		method.addBodyLine("while (copy.size() < padded) {");
+		method.addBodyLine("copy.add(last);");
+		method.addBodyLine("}");
+		method.addBodyLine(list + " = copy;");
+		method.addBodyLine("}");
+	}
+
+	/**
+	 * Whether the mapper interface is generated, which the helper classes call.
+	 */
+	static boolean hasMapperInterface(Context context, IntrospectedTable introspectedTable)
+	{
+		return introspectedTable.getMyBatis3JavaMapperType() != null
+			&& context.getJavaClientGeneratorConfiguration() != null;
+	}
+
+	/**
+	 * Creates the public class named the mapper interface + <code>suffix</code> in the same
+	 * package.
+	 */
+	static TopLevelClass createMapperHelperClass(Context context,
+		IntrospectedTable introspectedTable, String suffix)
+	{
+		FullyQualifiedJavaType mapperType = new FullyQualifiedJavaType(
+			introspectedTable.getMyBatis3JavaMapperType());
+		TopLevelClass topLevelClass = new TopLevelClass(mapperType.getFullyQualifiedName()
+			+ suffix);
+		topLevelClass.setVisibility(JavaVisibility.PUBLIC);
+		topLevelClass.addImportedType(mapperType);
+		context.getCommentGenerator().addJavaFileComment(topLevelClass);
+		return topLevelClass;
+	}
+
+	/**
+	 * Returns the helper class as a file in the target project of the mapper interface.
+	 */
+	static GeneratedJavaFile createMapperHelperFile(Context context, TopLevelClass topLevelClass)
+	{
+		return new GeneratedJavaFile(topLevelClass, context.getJavaClientGeneratorConfiguration()
+			.getTargetProject());
+	}
+}
@@ -0,0 +1,119 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mybatis.generator.api.IntrospectedColumn;
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.config.ColumnOverride;
+import org.mybatis.generator.config.GeneratedKey;
+
+/**
+ * This plugin changes the java type of the NOT NULL numeric columns from the wrapper class to
+ * the primitive type (e.g. <code>Integer</code> to <code>int</code>), which reduces the memory
+ * footprint of large result lists.<br>
+ * The type is changed when the table is initialized, so the model, the mapper XML and the
+ * Example criteria (e.g. <code>andQtyEqualTo(int value)</code>) are generated consistently.
+ * <br>
+ * The following columns are not changed.
+ * <ul>
+ * <li>nullable columns</li>
+ * <li><code>BigDecimal</code> columns, which have no primitive type (DECIMAL/NUMERIC columns
+ * with a small precision and scale 0 are mapped to <code>Long</code> or <code>Integer</code>
+ * unless <code>forceBigDecimals</code> is true, and are changed)</li>
+ * <li>the column of <code>&lt;generatedKey&gt;</code> and the identity or sequence columns, as
+ * the default value 0 of a new record would be inserted instead of NULL</li>
+ * <li>columns whose <code>javaType</code> or <code>typeHandler</code> is specified by
+ * <code>&lt;columnOverride&gt;</code></li>
+ * </ul>
+ * Floating point columns are changed unless <code>floatingPoint</code> property is false.<br>
+ * The conversion is opt-in: it is applied to the tables whose <code>primitiveTypes</code> table
+ * property is true, or to all the tables without the table property if the
+ * <code>primitiveTypes</code> plugin property is true.<br>
+ * Note that the selective statements (e.g. updateByExampleSelective) always include the
+ * primitive columns, as they can't be null; a record with only some properties set writes 0 to
+ * the other converted columns. Enable the conversion only for the tables whose code does not
+ * rely on the selective statements to skip these columns.
+ */
+public class PrimitivePropertyPlugin extends PluginAdapter
+{
+	private static final Map<String, FullyQualifiedJavaType> PRIMITIVES = new HashMap<String, FullyQualifiedJavaType>();
+
+	private static final Map<String, FullyQualifiedJavaType> FLOATING_PRIMITIVES = new HashMap<String, FullyQualifiedJavaType>();
+
+	static
+	{
+		PRIMITIVES.put(Byte.class.getName(), new FullyQualifiedJavaType("byte"));
+		PRIMITIVES.put(Short.class.getName(), new FullyQualifiedJavaType("short"));
+		PRIMITIVES.put(Integer.class.getName(), FullyQualifiedJavaType.getIntInstance());
+		PRIMITIVES.put(Long.class.getName(), new FullyQualifiedJavaType("long"));
+		FLOATING_PRIMITIVES.put(Float.class.getName(), new FullyQualifiedJavaType("float"));
+		FLOATING_PRIMITIVES.put(Double.class.getName(), new FullyQualifiedJavaType("double"));
+	}
+
+	private boolean floatingPoint;
+
+	private boolean allTables;
+
+	public boolean validate(List<String> warnings)
+	{
+		allTables = PluginSupport.getBooleanProperty(properties, "primitiveTypes", false);
+		floatingPoint = !"false".equalsIgnoreCase(properties.getProperty("floatingPoint", "true")
+			.trim());
+		return true;
+	}
+
+	@Override
+	public void initialized(IntrospectedTable introspectedTable)
+	{
+		String enabled = introspectedTable.getTableConfigurationProperty("primitiveTypes");
+		if (enabled == null ? !allTables : !"true".equalsIgnoreCase(enabled.trim()))
+			return;
+
+		GeneratedKey generatedKey = introspectedTable.getGeneratedKey();
+		for (IntrospectedColumn column : introspectedTable.getAllColumns())
+		{
+			if (column.isNullable() || column.isIdentity() || column.isSequenceColumn())
+				continue;
+			if (generatedKey != null
+				&& column.getActualColumnName().equalsIgnoreCase(generatedKey.getColumn()))
+				continue;
+			if (isOverridden(introspectedTable, column))
+				continue;
+
+			String typeName = column.getFullyQualifiedJavaType().getFullyQualifiedName();
+			FullyQualifiedJavaType primitive = PRIMITIVES.get(typeName);
+			if (primitive == null && floatingPoint)
+				primitive = FLOATING_PRIMITIVES.get(typeName);
+			if (primitive != null)
+				column.setFullyQualifiedJavaType(primitive);
+		}
+	}
+
+	private boolean isOverridden(IntrospectedTable introspectedTable, IntrospectedColumn column)
+	{
+		ColumnOverride columnOverride = introspectedTable.getTableConfiguration()
+			.getColumnOverride(column.getActualColumnName());
+		return columnOverride != null
+			&& (columnOverride.getJavaType() != null || columnOverride.getTypeHandler() != null);
+	}
+}
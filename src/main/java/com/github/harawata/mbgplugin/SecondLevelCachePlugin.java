@@ -0,0 +1,238 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mybatis.generator.api.GeneratedXmlFile;
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.xml.Attribute;
+import org.mybatis.generator.api.dom.xml.Document;
+import org.mybatis.generator.api.dom.xml.Element;
+import org.mybatis.generator.api.dom.xml.TextElement;
+import org.mybatis.generator.api.dom.xml.XmlElement;
+
+/**
+ * This plugin adds the second level cache (<code>&lt;cache&gt;</code> or
+ * <code>&lt;cache-ref&gt;</code>) to the XML mapper of the tables.<br>
+ * A table is cached when its <code>cache</code> table property is true, or when the plugin's
+ * <code>cacheAllTables</code> property is true and the table property is not false.<br>
+ * The cache attributes are specified by the plugin properties and can be overridden by the
+ * table properties.
+ * <ul>
+ * <li><code>eviction</code> / <code>cacheEviction</code> : LRU (default), FIFO, SOFT or
+ * WEAK</li>
+ * <li><code>size</code> / <code>cacheSize</code> : the number of the cached results (1024 by
+ * default)</li>
+ * <li><code>flushInterval</code> / <code>cacheFlushInterval</code> : milliseconds (no periodic
+ * flush by default)</li>
+ * <li><code>readOnly</code> / <code>cacheReadOnly</code> : false by default, which requires the
+ * model classes to be Serializable (e.g. with SerializablePlugin)</li>
+ * </ul>
+ * When <code>cacheRef</code> table property is specified, <code>&lt;cache-ref&gt;</code> to the
+ * namespace is added instead so that the tables updated together share a cache.<br>
+ * In the cached mappers, the selects that may lock rows (e.g. the ones with the locking clause
+ * of ForUpdatePlugin) get <code>useCache="false"</code> as a cached result would not acquire
+ * the lock (with ForUpdatePlugin, this means selectByExample is never cached while
+ * selectByPrimaryKey and countByExample are), and insert, update and delete statements
+ * explicitly get <code>flushCache="true"</code>.<br>
+ * These attributes are set in sqlMapGenerated() so that the statements added by the other
+ * plugins are covered regardless of the order of the plugins.
+ */
+public class SecondLevelCachePlugin extends PluginAdapter
+{
+	private static final List<String> EVICTIONS = Arrays.asList("LRU", "FIFO", "SOFT", "WEAK");
+
+	private static final List<String> LOCKING_CLAUSES = Arrays.asList("for update",
+		"for share", "lock in share mode");
+
+	private boolean cacheAllTables;
+
+	private String eviction;
+
+	private String size;
+
+	private String flushInterval;
+
+	private String readOnly;
+
+	/** The documents of the cached tables, modified in sqlMapGenerated(). */
+	private final Map<IntrospectedTable, Document> documents = new HashMap<IntrospectedTable, Document>();
+
+	public boolean validate(List<String> warnings)
+	{
+		cacheAllTables = "true".equalsIgnoreCase(properties.getProperty("cacheAllTables", "false")
+			.trim());
+		eviction = properties.getProperty("eviction", "LRU").trim().toUpperCase();
+		if (!EVICTIONS.contains(eviction))
+		{
+			warnings.add("SecondLevelCachePlugin: unsupported eviction '" + eviction + "'");
+			return false;
+		}
+		size = properties.getProperty("size", "1024").trim();
+		flushInterval = properties.getProperty("flushInterval", "").trim();
+		if (!isPositiveInteger(size)
+			|| (flushInterval.length() > 0 && !isPositiveInteger(flushInterval)))
+		{
+			warnings.add("SecondLevelCachePlugin: size and flushInterval must be positive integers");
+			return false;
+		}
+		readOnly = String.valueOf("true".equalsIgnoreCase(properties.getProperty("readOnly",
+			"false").trim()));
+		return true;
+	}
+
+	@Override
+	public boolean sqlMapDocumentGenerated(Document document, IntrospectedTable introspectedTable)
+	{
+		XmlElement cacheElement;
+		String cacheRef = introspectedTable.getTableConfigurationProperty("cacheRef");
+		if (cacheRef != null && cacheRef.trim().length() > 0)
+		{
+			cacheElement = new XmlElement("cache-ref");
+			cacheElement.addAttribute(new Attribute("namespace", cacheRef.trim()));
+		}
+		else if (isCached(introspectedTable))
+		{
+			cacheElement = new XmlElement("cache");
+			cacheElement.addAttribute(new Attribute("eviction", getEviction(introspectedTable)));
+			cacheElement.addAttribute(new Attribute("size", getTableProperty(introspectedTable,
+				"cacheSize", size)));
+			String interval = getTableProperty(introspectedTable, "cacheFlushInterval",
+				flushInterval);
+			if (interval.length() > 0)
+				cacheElement.addAttribute(new Attribute("flushInterval", interval));
+			cacheElement.addAttribute(new Attribute("readOnly", String.valueOf("true"
+				.equalsIgnoreCase(getTableProperty(introspectedTable, "cacheReadOnly", readOnly)))));
+		}
+		else
+		{
+			return true;
+		}
+		context.getCommentGenerator().addComment(cacheElement);
+		document.getRootElement().addElement(0, cacheElement);
+		documents.put(introspectedTable, document);
+		return true;
+	}
+
+	@Override
+	public boolean sqlMapGenerated(GeneratedXmlFile sqlMap, IntrospectedTable introspectedTable)
+	{
+		Document document = documents.remove(introspectedTable);
+		if (document == null)
+			return true;
+
+		for (Element elem : document.getRootElement().getElements())
+		{
+			if (!(elem instanceof XmlElement))
+				continue;
+			XmlElement element = (XmlElement)elem;
+			String name = element.getName();
+			if ("select".equals(name))
+			{
+				if (mayLock(element))
+					setAttribute(element, "useCache", "false");
+			}
+			else if ("insert".equals(name) || "update".equals(name) || "delete".equals(name))
+			{
+				setAttribute(element, "flushCache", "true");
+			}
+		}
+		return true;
+	}
+
+	private boolean isCached(IntrospectedTable introspectedTable)
+	{
+		String cache = introspectedTable.getTableConfigurationProperty("cache");
+		if (cache == null || cache.trim().length() == 0)
+			return cacheAllTables;
+		return "true".equalsIgnoreCase(cache.trim());
+	}
+
+	private String getEviction(IntrospectedTable introspectedTable)
+	{
+		String value = getTableProperty(introspectedTable, "cacheEviction", eviction)
+			.toUpperCase();
+		return EVICTIONS.contains(value) ? value : eviction;
+	}
+
+	private String getTableProperty(IntrospectedTable introspectedTable, String name,
+		String defaultValue)
+	{
+		String value = introspectedTable.getTableConfigurationProperty(name);
+		if (value == null || value.trim().length() == 0)
+			return defaultValue;
+		return value.trim();
+	}
+
+	/**
+	 * Returns true if the statement contains a locking clause, even in a dynamic element.
+	 */
+	private boolean mayLock(XmlElement element)
+	{
+		for (Element child : element.getElements())
+		{
+			if (child instanceof XmlElement)
+			{
+				if (mayLock((XmlElement)child))
+					return true;
+			}
+			else if (child instanceof TextElement)
+			{
+				String text = child.getFormattedContent(0).toLowerCase();
+				if (text.startsWith("<!--"))
+					continue;
+				for (String lockingClause : LOCKING_CLAUSES)
+				{
+					if (text.contains(lockingClause))
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void setAttribute(XmlElement element, String name, String value)
+	{
+		List<Attribute> attributes = element.getAttributes();
+		for (int i = 0; i < attributes.size(); i++)
+		{
+			if (name.equals(attributes.get(i).getName()))
+			{
+				attributes.set(i, new Attribute(name, value));
+				return;
+			}
+		}
+		attributes.add(new Attribute(name, value));
+	}
+
+	private boolean isPositiveInteger(String value)
+	{
+		try
+		{
+			return Long.parseLong(value) > 0L;
+		}
+		catch (NumberFormatException e)
+		{
+			return false;
+		}
+	}
+}
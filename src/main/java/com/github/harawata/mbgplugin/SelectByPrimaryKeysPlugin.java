@@ -0,0 +1,379 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mybatis.generator.api.GeneratedJavaFile;
+import org.mybatis.generator.api.IntrospectedColumn;
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.Interface;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.Parameter;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+import org.mybatis.generator.api.dom.xml.Attribute;
+import org.mybatis.generator.api.dom.xml.Document;
+import org.mybatis.generator.api.dom.xml.Element;
+import org.mybatis.generator.api.dom.xml.TextElement;
+import org.mybatis.generator.api.dom.xml.XmlElement;
+import org.mybatis.generator.codegen.mybatis3.MyBatis3FormattingUtilities;
+import org.mybatis.generator.internal.util.JavaBeansUtil;
+
+/**
+ * This plugin adds <code>selectByPrimaryKeys(Collection)</code> to the mapper, which selects
+ * the rows of the given keys by a single IN condition, and XxxMapperBatchSelect class whose
+ * <code>selectByPrimaryKeys(mapper, keys)</code> returns a <code>Map</code> from the key to the
+ * record, e.g. for DataLoader-style batching.<br>
+ * The key is the value of the column for a single-column primary key (e.g.
+ * <code>Integer</code>), or the primary key class for a composite primary key, which is looked
+ * up by a tuple IN condition like <code>(a, b) in ((?,?),(?,?))</code>. The primary key class
+ * must implement equals() and hashCode() (e.g. with EqualsHashCodePlugin) to be a map key.
+ * Tables with a composite primary key but no primary key class (e.g. the flat model) are
+ * skipped.<br>
+ * The helper removes the duplicated keys and selects the rows in chunks of
+ * <code>chunkSize</code> keys (1000 by default, or the positive value passed to the helper).
+ * The last chunk is padded to the next power of two by repeating the last key, so that the
+ * number of distinct statements stays small. Padding can be disabled by setting
+ * <code>padding</code> property to false.<br>
+ * Note that the mapper method itself generates an invalid statement for an empty collection;
+ * the helper returns an empty map without querying.
+ */
+public class SelectByPrimaryKeysPlugin extends PluginAdapter
+{
+	private static final String SELECT_BY_PRIMARY_KEYS = "selectByPrimaryKeys";
+
+	private int chunkSize;
+
+	private boolean padding;
+
+	public boolean validate(List<String> warnings)
+	{
+		chunkSize = PluginSupport.getPositiveIntProperty(properties, "chunkSize", 1000,
+			"SelectByPrimaryKeysPlugin", warnings);
+		padding = PluginSupport.getBooleanProperty(properties, "padding", true);
+		return chunkSize > 0;
+	}
+
+	@Override
+	public boolean sqlMapDocumentGenerated(Document document, IntrospectedTable introspectedTable)
+	{
+		if (!isEnabled(introspectedTable))
+			return true;
+
+		XmlElement root = document.getRootElement();
+		for (int i = 0; i < root.getElements().size(); i++)
+		{
+			Element elem = root.getElements().get(i);
+			if (elem instanceof XmlElement
+				&& introspectedTable.getSelectByPrimaryKeyStatementId().equals(
+					getAttribute((XmlElement)elem, "id")))
+			{
+				root.addElement(i + 1, createSelect(introspectedTable, (XmlElement)elem));
+				break;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the select statement up to the where clause and adds the IN condition.
+	 */
+	private XmlElement createSelect(IntrospectedTable introspectedTable, XmlElement original)
+	{
+		XmlElement answer = new XmlElement("select");
+		answer.addAttribute(new Attribute("id", SELECT_BY_PRIMARY_KEYS));
+		for (Attribute attribute : original.getAttributes())
+		{
+			if (!"id".equals(attribute.getName()) && !"parameterType".equals(attribute.getName()))
+				answer.addAttribute(attribute);
+		}
+		answer.addAttribute(new Attribute("parameterType", "map"));
+		context.getCommentGenerator().addComment(answer);
+
+		// skip the comment of the original statement
+		boolean inComment = false;
+		for (Element child : original.getElements())
+		{
+			if (child instanceof TextElement)
+			{
+				String text = child.getFormattedContent(0).trim();
+				if (text.startsWith("<!--"))
+					inComment = true;
+				if (inComment)
+				{
+					inComment = !text.endsWith("-->");
+					continue;
+				}
+				if (text.startsWith("where "))
+					break;
+			}
+			answer.addElement(child);
+		}
+
+		List<IntrospectedColumn> primaryKeyColumns = introspectedTable.getPrimaryKeyColumns();
+		StringBuilder columns = new StringBuilder();
+		StringBuilder parameters = new StringBuilder();
+		if (primaryKeyColumns.size() == 1)
+		{
+			IntrospectedColumn column = primaryKeyColumns.get(0);
+			columns.append(MyBatis3FormattingUtilities.getAliasedEscapedColumnName(column));
+			// #{key,jdbcType=...} instead of #{property,jdbcType=...}
+			parameters.append("#{key").append(
+				MyBatis3FormattingUtilities.getParameterClause(column).substring(
+					2 + column.getJavaProperty().length()));
+		}
+		else
+		{
+			columns.append('(');
+			parameters.append('(');
+			for (IntrospectedColumn column : primaryKeyColumns)
+			{
+				if (columns.length() > 1)
+				{
+					columns.append(", ");
+					parameters.append(", ");
+				}
+				columns.append(MyBatis3FormattingUtilities.getAliasedEscapedColumnName(column));
+				parameters.append(MyBatis3FormattingUtilities.getParameterClause(column, "key."));
+			}
+			columns.append(')');
+			parameters.append(')');
+		}
+		answer.addElement(new TextElement("where " + columns + " in"));
+
+		XmlElement foreachElement = new XmlElement("foreach");
+		foreachElement.addAttribute(new Attribute("collection", "keys"));
+		foreachElement.addAttribute(new Attribute("item", "key"));
+		foreachElement.addAttribute(new Attribute("open", "("));
+		foreachElement.addAttribute(new Attribute("close", ")"));
+		foreachElement.addAttribute(new Attribute("separator", ","));
+		foreachElement.addElement(new TextElement(parameters.toString()));
+		answer.addElement(foreachElement);
+		return answer;
+	}
+
+	@Override
+	public boolean clientGenerated(Interface interfaze, TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		if (!isEnabled(introspectedTable))
+			return true;
+
+		FullyQualifiedJavaType keyType = getKeyType(introspectedTable);
+		FullyQualifiedJavaType recordType = introspectedTable.getRules().calculateAllFieldsClass();
+		FullyQualifiedJavaType listType = FullyQualifiedJavaType.getNewListInstance();
+		listType.addTypeArgument(recordType);
+		interfaze.addImportedType(keyType);
+		interfaze.addImportedType(recordType);
+		interfaze.addImportedType(listType);
+		interfaze.addImportedType(new FullyQualifiedJavaType("java.util.Collection"));
+		interfaze.addImportedType(new FullyQualifiedJavaType("org.apache.ibatis.annotations.Param"));
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(listType);
+		method.setName(SELECT_BY_PRIMARY_KEYS);
+		method.addParameter(new Parameter(getKeyCollectionType(keyType), "keys",
+			"@Param(\"keys\")"));
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		interfaze.addMethod(method);
+		return true;
+	}
+
+	@Override
+	public List<GeneratedJavaFile> contextGenerateAdditionalJavaFiles(
+		IntrospectedTable introspectedTable)
+	{
+		List<GeneratedJavaFile> answer = new ArrayList<GeneratedJavaFile>();
+		if (!isEnabled(introspectedTable))
+			return answer;
+
+		FullyQualifiedJavaType mapperType = new FullyQualifiedJavaType(
+			introspectedTable.getMyBatis3JavaMapperType());
+		FullyQualifiedJavaType keyType = getKeyType(introspectedTable);
+		FullyQualifiedJavaType recordType = introspectedTable.getRules().calculateAllFieldsClass();
+		FullyQualifiedJavaType mapType = new FullyQualifiedJavaType("java.util.Map");
+		mapType.addTypeArgument(keyType);
+		mapType.addTypeArgument(recordType);
+		String key = keyType.getShortName();
+		String record = recordType.getShortName();
+
+		TopLevelClass topLevelClass = PluginSupport.createMapperHelperClass(context,
+			introspectedTable, "BatchSelect");
+		topLevelClass.addImportedType(keyType);
+		topLevelClass.addImportedType(recordType);
+		topLevelClass.addImportedType(mapType);
+		topLevelClass.addImportedType(new FullyQualifiedJavaType("java.util.ArrayList"));
+		topLevelClass.addImportedType(new FullyQualifiedJavaType("java.util.Collection"));
+		topLevelClass.addImportedType(new FullyQualifiedJavaType("java.util.HashMap"));
+		topLevelClass.addImportedType(new FullyQualifiedJavaType("java.util.LinkedHashSet"));
+		topLevelClass.addImportedType(FullyQualifiedJavaType.getNewListInstance());
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setStatic(true);
+		method.setReturnType(mapType);
+		method.setName(SELECT_BY_PRIMARY_KEYS);
+		method.addParameter(new Parameter(mapperType, "mapper"));
+		method.addParameter(new Parameter(getKeyCollectionType(keyType), "keys"));
+		method.addBodyLine("return " + SELECT_BY_PRIMARY_KEYS + "(mapper, keys, " + chunkSize
+			+ ");");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		// the map is presized to the number of the keys, the missing keys are not in the map
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setStatic(true);
+		method.setReturnType(mapType);
+		method.setName(SELECT_BY_PRIMARY_KEYS);
+		method.addParameter(new Parameter(mapperType, "mapper"));
+		method.addParameter(new Parameter(getKeyCollectionType(keyType), "keys"));
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getIntInstance(), "chunkSize"));
+		method.addBodyLine("if (chunkSize <= 0) {");
+		method.addBodyLine("throw new IllegalArgumentException(\"chunkSize must be positive\");");
+		method.addBodyLine("}");
+		method.addBodyLine(mapType.getShortName() + " records = new HashMap<" + key + ", "
+			+ record + ">((int) (keys.size() / 0.75f) + 1);");
+		method.addBodyLine("if (keys.isEmpty()) {");
+		method.addBodyLine("return records;");
+		method.addBodyLine("}");
+		method.addBodyLine("List<" + key + "> distinct = new ArrayList<" + key
+			+ ">(new LinkedHashSet<" + key + ">(keys));");
+		method.addBodyLine("int size = distinct.size();");
+		// from + chunkSize may overflow as chunkSize has no upper bound
+		method.addBodyLine("for (int from = 0, to; from < size; from = to) {");
+		method.addBodyLine("to = from + Math.min(chunkSize, size - from);");
+		method.addBodyLine("List<" + key + "> chunk = distinct.subList(from, to);");
+		if (padding)
+			PluginSupport.addPaddingLines(method, "chunk", key, "chunkSize");
+		method.addBodyLine("for (" + record + " record : mapper." + SELECT_BY_PRIMARY_KEYS
+			+ "(chunk)) {");
+		method.addBodyLine("records.put(keyOf(record), record);");
+		method.addBodyLine("}");
+		method.addBodyLine("}");
+		method.addBodyLine("return records;");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PRIVATE);
+		method.setStatic(true);
+		method.setReturnType(keyType);
+		method.setName("keyOf");
+		method.addParameter(new Parameter(recordType, "record"));
+		addKeyOfLines(method, introspectedTable, keyType);
+		topLevelClass.addMethod(method);
+
+		answer.add(PluginSupport.createMapperHelperFile(context, topLevelClass));
+		return answer;
+	}
+
+	/**
+	 * A new key is created for a composite key, as the record (a subclass of the primary key
+	 * class) is not equal to the key.
+	 */
+	private void addKeyOfLines(Method method, IntrospectedTable introspectedTable,
+		FullyQualifiedJavaType keyType)
+	{
+		List<IntrospectedColumn> primaryKeyColumns = introspectedTable.getPrimaryKeyColumns();
+		if (primaryKeyColumns.size() == 1)
+		{
+			method.addBodyLine("return record." + getGetterName(primaryKeyColumns.get(0)) + "();");
+			return;
+		}
+
+		String key = keyType.getShortName();
+		if (introspectedTable.isConstructorBased() || introspectedTable.isImmutable())
+		{
+			StringBuilder sb = new StringBuilder();
+			sb.append("return new ").append(key).append('(');
+			for (int i = 0; i < primaryKeyColumns.size(); i++)
+			{
+				if (i > 0)
+					sb.append(", ");
+				sb.append("record.").append(getGetterName(primaryKeyColumns.get(i))).append("()");
+			}
+			sb.append(");");
+			method.addBodyLine(sb.toString());
+			return;
+		}
+
+		method.addBodyLine(key + " key = new " + key + "();");
+		for (IntrospectedColumn column : primaryKeyColumns)
+		{
+			method.addBodyLine("key."
+				+ JavaBeansUtil.getSetterMethodName(column.getJavaProperty()) + "(record."
+				+ getGetterName(column) + "());");
+		}
+		method.addBodyLine("return key;");
+	}
+
+	private String getGetterName(IntrospectedColumn column)
+	{
+		return JavaBeansUtil.getGetterMethodName(column.getJavaProperty(),
+			column.getFullyQualifiedJavaType());
+	}
+
+	/**
+	 * Returns the column type (the wrapper of a primitive) for a single-column primary key or
+	 * the primary key class.
+	 */
+	private FullyQualifiedJavaType getKeyType(IntrospectedTable introspectedTable)
+	{
+		List<IntrospectedColumn> primaryKeyColumns = introspectedTable.getPrimaryKeyColumns();
+		if (primaryKeyColumns.size() > 1)
+			return new FullyQualifiedJavaType(introspectedTable.getPrimaryKeyType());
+		FullyQualifiedJavaType type = primaryKeyColumns.get(0).getFullyQualifiedJavaType();
+		return type.isPrimitive() ? type.getPrimitiveTypeWrapper() : type;
+	}
+
+	private FullyQualifiedJavaType getKeyCollectionType(FullyQualifiedJavaType keyType)
+	{
+		FullyQualifiedJavaType type = new FullyQualifiedJavaType("java.util.Collection");
+		type.addTypeArgument(new FullyQualifiedJavaType("? extends " + keyType.getShortName()));
+		return type;
+	}
+
+	/**
+	 * selectByPrimaryKeys requires selectByPrimaryKey, the mapper interface and, for a
+	 * composite key, the primary key class.
+	 */
+	private boolean isEnabled(IntrospectedTable introspectedTable)
+	{
+		List<IntrospectedColumn> primaryKeyColumns = introspectedTable.getPrimaryKeyColumns();
+		return introspectedTable.getRules().generateSelectByPrimaryKey()
+			&& !primaryKeyColumns.isEmpty()
+			&& (primaryKeyColumns.size() == 1 || introspectedTable.getRules()
+				.generatePrimaryKeyClass())
+			&& PluginSupport.hasMapperInterface(context, introspectedTable);
+	}
+
+	private String getAttribute(XmlElement element, String name)
+	{
+		for (Attribute attribute : element.getAttributes())
+		{
+			if (name.equals(attribute.getName()))
+				return attribute.getValue();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,174 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.Field;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.InnerClass;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+
+/**
+ * Criterion without value (e.g. the ones added by andXxxIsNull() and andXxxIsNotNull()) is
+ * immutable, but the default implementation creates a new instance on each call.<br>
+ * This plugin declares them as <code>static final</code> fields of GeneratedCriteria and adds
+ * the shared instances instead.<br>
+ * It also presizes the lists holding the criteria. The initial capacities can be changed by
+ * <code>criteriaCapacity</code> (4 by default) and <code>oredCriteriaCapacity</code> (1 by
+ * default) properties.<br>
+ * This plugin should be placed after the plugins adding criteria methods (e.g.
+ * CaseInsensitveLikePlugin) so that their methods are also processed.
+ */
+public class SharedCriterionPlugin extends PluginAdapter
+{
+	private static final Pattern NO_VALUE_CRITERION = Pattern
+		.compile("^addCriterion\\((\"(?:[^\"\\\\]|\\\\.)*\")\\);$");
+
+	private int criteriaCapacity;
+
+	private int oredCriteriaCapacity;
+
+	public boolean validate(List<String> warnings)
+	{
+		try
+		{
+			criteriaCapacity = Integer.parseInt(properties.getProperty("criteriaCapacity", "4")
+				.trim());
+			oredCriteriaCapacity = Integer.parseInt(properties.getProperty(
+				"oredCriteriaCapacity", "1").trim());
+		}
+		catch (NumberFormatException e)
+		{
+			warnings.add("SharedCriterionPlugin: invalid criteriaCapacity or oredCriteriaCapacity");
+			return false;
+		}
+		if (criteriaCapacity < 0 || oredCriteriaCapacity < 0)
+		{
+			warnings.add("SharedCriterionPlugin: invalid criteriaCapacity or oredCriteriaCapacity");
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean modelExampleClassGenerated(TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		for (Method method : topLevelClass.getMethods())
+		{
+			if (method.isConstructor())
+				presize(method.getBodyLines(), "oredCriteria = new ArrayList<Criteria>(",
+					oredCriteriaCapacity);
+		}
+		for (InnerClass innerClass : topLevelClass.getInnerClasses())
+		{
+			if ("GeneratedCriteria".equals(innerClass.getType().getShortName()))
+			{
+				modifyGeneratedCriteria(introspectedTable, innerClass);
+			}
+		}
+		return true;
+	}
+
+	private void modifyGeneratedCriteria(IntrospectedTable introspectedTable,
+		InnerClass innerClass)
+	{
+		// condition literal -> constant name
+		Map<String, String> constants = new LinkedHashMap<String, String>();
+		for (Method method : innerClass.getMethods())
+		{
+			if (method.isConstructor())
+			{
+				presize(method.getBodyLines(), "criteria = new ArrayList<Criterion>(",
+					criteriaCapacity);
+				continue;
+			}
+			if (!method.getName().startsWith("and"))
+				continue;
+
+			List<String> bodyLines = method.getBodyLines();
+			for (int i = 0; i < bodyLines.size(); i++)
+			{
+				Matcher matcher = NO_VALUE_CRITERION.matcher(bodyLines.get(i));
+				if (!matcher.matches())
+					continue;
+				String condition = matcher.group(1);
+				String constant = constants.get(condition);
+				if (constant == null)
+				{
+					constant = toConstantName(method.getName().substring(3));
+					if (constants.containsValue(constant))
+						constant = constant + "_" + constants.size();
+					constants.put(condition, constant);
+				}
+				bodyLines.set(i, "criteria.add(" + constant + ");");
+			}
+		}
+
+		int index = 0;
+		for (Map.Entry<String, String> entry : constants.entrySet())
+		{
+			Field field = new Field();
+			field.setVisibility(JavaVisibility.PRIVATE);
+			field.setStatic(true);
+			field.setFinal(true);
+			field.setType(new FullyQualifiedJavaType("Criterion"));
+			field.setName(entry.getValue());
+			field.setInitializationString("new Criterion(" + entry.getKey() + ")");
+			context.getCommentGenerator().addFieldComment(field, introspectedTable);
+			innerClass.getFields().add(index++, field);
+		}
+	}
+
+	/**
+	 * Replaces <code>xxx = new ArrayList&lt;T&gt;();</code> with
+	 * <code>xxx = new ArrayList&lt;T&gt;(capacity);</code>.
+	 */
+	private void presize(List<String> bodyLines, String prefix, int capacity)
+	{
+		for (int i = 0; i < bodyLines.size(); i++)
+		{
+			if (bodyLines.get(i).equals(prefix + ");"))
+				bodyLines.set(i, prefix + capacity + ");");
+		}
+	}
+
+	/**
+	 * IdIsNotNull -> ID_IS_NOT_NULL
+	 */
+	private String toConstantName(String name)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < name.length(); i++)
+		{
+			char c = name.charAt(i);
+			if (Character.isUpperCase(c) && i > 0)
+				sb.append('_');
+			sb.append(Character.toUpperCase(c));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,495 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mybatis.generator.api.GeneratedJavaFile;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.Field;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.InnerClass;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.Parameter;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+
+/**
+ * This plugin generates a MyBatis Interceptor that records the latency and the row count of
+ * each mapped statement without any metrics library.<br>
+ * The class is generated in the package specified by <code>targetPackage</code> property (the
+ * package of the java client by default) with the name specified by <code>className</code>
+ * property (<code>StatementMetricsInterceptor</code> by default). Register it in the MyBatis
+ * configuration and call snapshot() or snapshotAndReset() to scrape the metrics.<br>
+ * The counters and the histogram are striped by thread to avoid contention. The number of the
+ * stripes is specified by <code>stripes</code> property (8 by default, must be a power of
+ * two).<br>
+ * The histogram is log-linear: the values below 8 microseconds have their own buckets and each
+ * power of two above has 8 buckets, so the relative error is at most 12.5%. The values above
+ * about 71 minutes are counted in the last bucket.<br>
+ * Recording does not allocate once the statement has been executed.<br>
+ * Under <code>ExecutorType.BATCH</code> the statements are only queued by update, which
+ * returns a negative placeholder instead of the update count; such counts are not added to
+ * the rows. The flush that actually executes the batch is not intercepted (it is also
+ * triggered internally by commit and by the next select), so the latency of a batched
+ * statement excludes the time spent in the database.
+ */
+public class StatementMetricsPlugin extends PluginAdapter
+{
+	private static final String SNAPSHOT = "Snapshot";
+
+	private static final String STATEMENT_METRICS = "StatementMetrics";
+
+	private String targetPackage;
+
+	private String className;
+
+	private int stripes;
+
+	public boolean validate(List<String> warnings)
+	{
+		targetPackage = properties.getProperty("targetPackage");
+		if (targetPackage == null || targetPackage.trim().length() == 0)
+		{
+			if (context.getJavaClientGeneratorConfiguration() == null)
+			{
+				warnings.add("StatementMetricsPlugin: targetPackage is required when there is no javaClientGenerator");
+				return false;
+			}
+			targetPackage = context.getJavaClientGeneratorConfiguration().getTargetPackage();
+		}
+		targetPackage = targetPackage.trim();
+		className = properties.getProperty("className", "StatementMetricsInterceptor").trim();
+		try
+		{
+			stripes = Integer.parseInt(properties.getProperty("stripes", "8").trim());
+		}
+		catch (NumberFormatException e)
+		{
+			stripes = -1;
+		}
+		if (stripes <= 0 || Integer.bitCount(stripes) != 1)
+		{
+			warnings.add("StatementMetricsPlugin: stripes must be a power of two");
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public List<GeneratedJavaFile> contextGenerateAdditionalJavaFiles()
+	{
+		FullyQualifiedJavaType longType = new FullyQualifiedJavaType("long");
+		FullyQualifiedJavaType intType = FullyQualifiedJavaType.getIntInstance();
+		FullyQualifiedJavaType stringType = FullyQualifiedJavaType.getStringInstance();
+		FullyQualifiedJavaType objectType = FullyQualifiedJavaType.getObjectInstance();
+		FullyQualifiedJavaType snapshotType = new FullyQualifiedJavaType(SNAPSHOT);
+		FullyQualifiedJavaType metricsType = new FullyQualifiedJavaType(STATEMENT_METRICS);
+		FullyQualifiedJavaType snapshotMapType = new FullyQualifiedJavaType("Map<String, "
+			+ SNAPSHOT + ">");
+
+		TopLevelClass topLevelClass = new TopLevelClass(targetPackage + "." + className);
+		topLevelClass.setVisibility(JavaVisibility.PUBLIC);
+		topLevelClass.addSuperInterface(new FullyQualifiedJavaType(
+			"org.apache.ibatis.plugin.Interceptor"));
+		topLevelClass.addImportedType("java.util.Collections");
+		topLevelClass.addImportedType("java.util.List");
+		topLevelClass.addImportedType("java.util.Map");
+		topLevelClass.addImportedType("java.util.Properties");
+		topLevelClass.addImportedType("java.util.TreeMap");
+		topLevelClass.addImportedType("java.util.concurrent.ConcurrentHashMap");
+		topLevelClass.addImportedType("java.util.concurrent.ConcurrentMap");
+		topLevelClass.addImportedType("java.util.concurrent.atomic.AtomicLongArray");
+		topLevelClass.addImportedType("org.apache.ibatis.cache.CacheKey");
+		topLevelClass.addImportedType("org.apache.ibatis.executor.Executor");
+		topLevelClass.addImportedType("org.apache.ibatis.mapping.BoundSql");
+		topLevelClass.addImportedType("org.apache.ibatis.mapping.MappedStatement");
+		topLevelClass.addImportedType("org.apache.ibatis.plugin.Interceptor");
+		topLevelClass.addImportedType("org.apache.ibatis.plugin.Intercepts");
+		topLevelClass.addImportedType("org.apache.ibatis.plugin.Invocation");
+		topLevelClass.addImportedType("org.apache.ibatis.plugin.Plugin");
+		topLevelClass.addImportedType("org.apache.ibatis.plugin.Signature");
+		topLevelClass.addImportedType("org.apache.ibatis.session.ResultHandler");
+		topLevelClass.addImportedType("org.apache.ibatis.session.RowBounds");
+		topLevelClass.addAnnotation("@Intercepts({\n"
+			+ "    @Signature(type = Executor.class, method = \"update\", args = { MappedStatement.class, Object.class }),\n"
+			+ "    @Signature(type = Executor.class, method = \"query\", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class }),\n"
+			+ "    @Signature(type = Executor.class, method = \"query\", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class }),\n"
+			+ "    @Signature(type = Executor.class, method = \"queryCursor\", args = { MappedStatement.class, Object.class, RowBounds.class }) })");
+		context.getCommentGenerator().addJavaFileComment(topLevelClass);
+
+		addConstant(topLevelClass, JavaVisibility.PRIVATE, "STRIPES", String.valueOf(stripes));
+		addConstant(topLevelClass, JavaVisibility.PRIVATE, "SUB_BUCKET_BITS", "3");
+		addConstant(topLevelClass, JavaVisibility.PRIVATE, "SUB_BUCKETS", "1 << SUB_BUCKET_BITS");
+		addConstant(topLevelClass, JavaVisibility.PRIVATE, "MAX_EXPONENT", "31");
+		addConstant(topLevelClass, JavaVisibility.PUBLIC, "BUCKETS",
+			"(MAX_EXPONENT - SUB_BUCKET_BITS + 2) << SUB_BUCKET_BITS");
+		// the header of a stripe: count, errors, rows, total nanos, max nanos and padding
+		addConstant(topLevelClass, JavaVisibility.PRIVATE, "COUNT", "0");
+		addConstant(topLevelClass, JavaVisibility.PRIVATE, "ERRORS", "1");
+		addConstant(topLevelClass, JavaVisibility.PRIVATE, "ROWS", "2");
+		addConstant(topLevelClass, JavaVisibility.PRIVATE, "TOTAL_NANOS", "3");
+		addConstant(topLevelClass, JavaVisibility.PRIVATE, "MAX_NANOS", "4");
+		addConstant(topLevelClass, JavaVisibility.PRIVATE, "HEADER", "8");
+		// a multiple of 8 longs so that the stripes do not share a cache line
+		addConstant(topLevelClass, JavaVisibility.PRIVATE, "STRIDE",
+			"(HEADER + BUCKETS + 7) & ~7");
+
+		Field field = new Field();
+		field.setVisibility(JavaVisibility.PRIVATE);
+		field.setFinal(true);
+		field.setType(new FullyQualifiedJavaType("ConcurrentMap<String, " + STATEMENT_METRICS
+			+ ">"));
+		field.setName("metrics");
+		field.setInitializationString("new ConcurrentHashMap<String, " + STATEMENT_METRICS
+			+ ">()");
+		topLevelClass.addField(field);
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(objectType);
+		method.setName("intercept");
+		method.addParameter(new Parameter(new FullyQualifiedJavaType("Invocation"), "invocation"));
+		method.addException(new FullyQualifiedJavaType("Throwable"));
+		method.addBodyLine("MappedStatement ms = (MappedStatement) invocation.getArgs()[0];");
+		method.addBodyLine(STATEMENT_METRICS + " statementMetrics = metrics.get(ms.getId());");
+		method.addBodyLine("if (statementMetrics == null) {");
+		method.addBodyLine("statementMetrics = new " + STATEMENT_METRICS + "();");
+		method.addBodyLine(STATEMENT_METRICS
+			+ " existing = metrics.putIfAbsent(ms.getId(), statementMetrics);");
+		method.addBodyLine("if (existing != null) {");
+		method.addBodyLine("statementMetrics = existing;");
+		method.addBodyLine("}");
+		method.addBodyLine("}");
+		method.addBodyLine("Object result = null;");
+		method.addBodyLine("boolean success = false;");
+		method.addBodyLine("long start = System.nanoTime();");
+		method.addBodyLine("try {");
+		method.addBodyLine("result = invocation.proceed();");
+		method.addBodyLine("success = true;");
+		method.addBodyLine("return result;");
+		method.addBodyLine("} finally {");
+		method.addBodyLine("statementMetrics.record(System.nanoTime() - start, rowCount(result), success);");
+		method.addBodyLine("}");
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(objectType);
+		method.setName("plugin");
+		method.addParameter(new Parameter(objectType, "target"));
+		method.addBodyLine("return Plugin.wrap(target, this);");
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setName("setProperties");
+		method.addParameter(new Parameter(new FullyQualifiedJavaType("Properties"), "properties"));
+		// MBG renders a method without body lines as abstract
+		method.addBodyLine("// no properties");
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.addJavaDocLine("/**");
+		method.addJavaDocLine(" * Returns the metrics recorded so far keyed by the mapped statement id.");
+		method.addJavaDocLine(" */");
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(snapshotMapType);
+		method.setName("snapshot");
+		method.addBodyLine("return snapshot(false);");
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.addJavaDocLine("/**");
+		method.addJavaDocLine(" * Returns the metrics recorded since the last reset and resets them.");
+		method.addJavaDocLine(" * The executions running concurrently are counted in either of the intervals.");
+		method.addJavaDocLine(" */");
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(snapshotMapType);
+		method.setName("snapshotAndReset");
+		method.addBodyLine("return snapshot(true);");
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PRIVATE);
+		method.setReturnType(snapshotMapType);
+		method.setName("snapshot");
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getBooleanPrimitiveInstance(),
+			"reset"));
+		method.addBodyLine("Map<String, " + SNAPSHOT + "> answer = new TreeMap<String, "
+			+ SNAPSHOT + ">();");
+		method.addBodyLine("for (Map.Entry<String, " + STATEMENT_METRICS
+			+ "> entry : metrics.entrySet()) {");
+		method.addBodyLine("answer.put(entry.getKey(), entry.getValue().snapshot(reset));");
+		method.addBodyLine("}");
+		method.addBodyLine("return Collections.unmodifiableMap(answer);");
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.addJavaDocLine("/**");
+		method.addJavaDocLine(" * Returns the smallest value in microseconds counted in the bucket.");
+		method.addJavaDocLine(" */");
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setStatic(true);
+		method.setReturnType(longType);
+		method.setName("bucketLowerBound");
+		method.addParameter(new Parameter(intType, "bucket"));
+		method.addBodyLine("if (bucket < SUB_BUCKETS) {");
+		method.addBodyLine("return bucket;");
+		method.addBodyLine("}");
+		method.addBodyLine("int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;");
+		method.addBodyLine("return (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << (exponent - SUB_BUCKET_BITS);");
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.addJavaDocLine("/**");
+		method.addJavaDocLine(" * Returns the smallest value in microseconds counted in the next bucket.");
+		method.addJavaDocLine(" */");
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setStatic(true);
+		method.setReturnType(longType);
+		method.setName("bucketUpperBound");
+		method.addParameter(new Parameter(intType, "bucket"));
+		method.addBodyLine("if (bucket < SUB_BUCKETS) {");
+		method.addBodyLine("return bucket + 1L;");
+		method.addBodyLine("}");
+		method.addBodyLine("int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;");
+		method.addBodyLine("return bucketLowerBound(bucket) + (1L << (exponent - SUB_BUCKET_BITS));");
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PRIVATE);
+		method.setStatic(true);
+		method.setReturnType(intType);
+		method.setName("bucket");
+		method.addParameter(new Parameter(longType, "micros"));
+		method.addBodyLine("if (micros < SUB_BUCKETS) {");
+		method.addBodyLine("return micros < 0L ? 0 : (int) micros;");
+		method.addBodyLine("}");
+		method.addBodyLine("if (micros >= 1L << (MAX_EXPONENT + 1)) {");
+		method.addBodyLine("return BUCKETS - 1;");
+		method.addBodyLine("}");
+		method.addBodyLine("int exponent = 63 - Long.numberOfLeadingZeros(micros);");
+		method.addBodyLine("return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS)");
+		method.addBodyLine("    + (int) ((micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));");
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PRIVATE);
+		method.setStatic(true);
+		method.setReturnType(longType);
+		method.setName("rowCount");
+		method.addParameter(new Parameter(objectType, "result"));
+		method.addBodyLine("if (result instanceof Integer) {");
+		method.addBodyLine("// negative under ExecutorType.BATCH (BATCH_UPDATE_RETURN_VALUE)");
+		method.addBodyLine("return Math.max(((Integer) result).intValue(), 0);");
+		method.addBodyLine("}");
+		method.addBodyLine("if (result instanceof List) {");
+		method.addBodyLine("return ((List<?>) result).size();");
+		method.addBodyLine("}");
+		method.addBodyLine("// unknown, e.g. a Cursor or a ResultHandler");
+		method.addBodyLine("return 0L;");
+		topLevelClass.addMethod(method);
+
+		topLevelClass.addInnerClass(createStatementMetricsClass(metricsType, snapshotType,
+			longType));
+		topLevelClass.addInnerClass(createSnapshotClass(snapshotType, longType, intType,
+			stringType));
+
+		List<GeneratedJavaFile> answer = new ArrayList<GeneratedJavaFile>();
+		String targetProject = context.getJavaClientGeneratorConfiguration() == null ? context
+			.getJavaModelGeneratorConfiguration()
+			.getTargetProject() : context.getJavaClientGeneratorConfiguration().getTargetProject();
+		answer.add(new GeneratedJavaFile(topLevelClass, targetProject));
+		return answer;
+	}
+
+	private InnerClass createStatementMetricsClass(FullyQualifiedJavaType metricsType,
+		FullyQualifiedJavaType snapshotType, FullyQualifiedJavaType longType)
+	{
+		InnerClass innerClass = new InnerClass(metricsType);
+		innerClass.setVisibility(JavaVisibility.PRIVATE);
+		innerClass.setStatic(true);
+
+		Field field = new Field();
+		field.setVisibility(JavaVisibility.PRIVATE);
+		field.setFinal(true);
+		field.setType(new FullyQualifiedJavaType("AtomicLongArray"));
+		field.setName("cells");
+		field.setInitializationString("new AtomicLongArray(STRIPES * STRIDE)");
+		innerClass.addField(field);
+
+		Method method = new Method();
+		method.setName("record");
+		method.addParameter(new Parameter(longType, "nanos"));
+		method.addParameter(new Parameter(longType, "rows"));
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getBooleanPrimitiveInstance(),
+			"success"));
+		method.addBodyLine("int base = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIDE;");
+		method.addBodyLine("cells.incrementAndGet(base + COUNT);");
+		method.addBodyLine("if (!success) {");
+		method.addBodyLine("cells.incrementAndGet(base + ERRORS);");
+		method.addBodyLine("}");
+		method.addBodyLine("if (rows > 0L) {");
+		method.addBodyLine("cells.addAndGet(base + ROWS, rows);");
+		method.addBodyLine("}");
+		method.addBodyLine("cells.addAndGet(base + TOTAL_NANOS, nanos);");
+		method.addBodyLine("long max = cells.get(base + MAX_NANOS);");
+		method.addBodyLine("while (nanos > max && !cells.compareAndSet(base + MAX_NANOS, max, nanos)) {");
+		method.addBodyLine("max = cells.get(base + MAX_NANOS);");
+		method.addBodyLine("}");
+		method.addBodyLine("cells.incrementAndGet(base + HEADER + bucket(nanos / 1000L));");
+		innerClass.addMethod(method);
+
+		method = new Method();
+		method.setReturnType(snapshotType);
+		method.setName("snapshot");
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getBooleanPrimitiveInstance(),
+			"reset"));
+		method.addBodyLine("long[] totals = new long[HEADER];");
+		method.addBodyLine("long[] buckets = new long[BUCKETS];");
+		method.addBodyLine("for (int stripe = 0; stripe < STRIPES; stripe++) {");
+		method.addBodyLine("int base = stripe * STRIDE;");
+		method.addBodyLine("for (int i = 0; i < HEADER; i++) {");
+		method.addBodyLine("long value = reset ? cells.getAndSet(base + i, 0L) : cells.get(base + i);");
+		method.addBodyLine("totals[i] = i == MAX_NANOS ? Math.max(totals[i], value) : totals[i] + value;");
+		method.addBodyLine("}");
+		method.addBodyLine("for (int i = 0; i < BUCKETS; i++) {");
+		method.addBodyLine("buckets[i] += reset ? cells.getAndSet(base + HEADER + i, 0L) : cells.get(base + HEADER + i);");
+		method.addBodyLine("}");
+		method.addBodyLine("}");
+		method.addBodyLine("return new " + SNAPSHOT
+			+ "(totals[COUNT], totals[ERRORS], totals[ROWS], totals[TOTAL_NANOS], totals[MAX_NANOS], buckets);");
+		innerClass.addMethod(method);
+		return innerClass;
+	}
+
+	private InnerClass createSnapshotClass(FullyQualifiedJavaType snapshotType,
+		FullyQualifiedJavaType longType, FullyQualifiedJavaType intType,
+		FullyQualifiedJavaType stringType)
+	{
+		InnerClass innerClass = new InnerClass(snapshotType);
+		innerClass.setVisibility(JavaVisibility.PUBLIC);
+		innerClass.setStatic(true);
+
+		FullyQualifiedJavaType longArrayType = new FullyQualifiedJavaType("long[]");
+		String[] names = {
+			"count", "errors", "rows", "totalNanos", "maxNanos"
+		};
+
+		Method constructor = new Method();
+		constructor.setConstructor(true);
+		constructor.setName(SNAPSHOT);
+		for (String name : names)
+		{
+			addSnapshotField(innerClass, longType, name);
+			constructor.addParameter(new Parameter(longType, name));
+			constructor.addBodyLine("this." + name + " = " + name + ";");
+		}
+		addSnapshotField(innerClass, longArrayType, "buckets");
+		constructor.addParameter(new Parameter(longArrayType, "buckets"));
+		constructor.addBodyLine("this.buckets = buckets;");
+		innerClass.addMethod(constructor);
+
+		for (String name : names)
+		{
+			Method method = new Method();
+			method.setVisibility(JavaVisibility.PUBLIC);
+			method.setReturnType(longType);
+			method.setName("get" + Character.toUpperCase(name.charAt(0)) + name.substring(1));
+			method.addBodyLine("return " + name + ";");
+			innerClass.addMethod(method);
+		}
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(longType);
+		method.setName("getBucketCount");
+		method.addParameter(new Parameter(intType, "bucket"));
+		method.addBodyLine("return buckets[bucket];");
+		innerClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(new FullyQualifiedJavaType("double"));
+		method.setName("getMeanMicros");
+		method.addBodyLine("return count == 0L ? 0.0d : totalNanos / 1000.0d / count;");
+		innerClass.addMethod(method);
+
+		method = new Method();
+		method.addJavaDocLine("/**");
+		method.addJavaDocLine(" * Returns the upper bound in microseconds of the bucket that contains the percentile,");
+		method.addJavaDocLine(" * e.g. getPercentileMicros(99.0d).");
+		method.addJavaDocLine(" */");
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(longType);
+		method.setName("getPercentileMicros");
+		method.addParameter(new Parameter(new FullyQualifiedJavaType("double"), "percentile"));
+		method.addBodyLine("long total = 0L;");
+		method.addBodyLine("for (long bucketCount : buckets) {");
+		method.addBodyLine("total += bucketCount;");
+		method.addBodyLine("}");
+		method.addBodyLine("if (total == 0L) {");
+		method.addBodyLine("return 0L;");
+		method.addBodyLine("}");
+		method.addBodyLine("long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100.0d));");
+		method.addBodyLine("long seen = 0L;");
+		method.addBodyLine("for (int i = 0; i < buckets.length; i++) {");
+		method.addBodyLine("seen += buckets[i];");
+		method.addBodyLine("if (seen >= rank) {");
+		method.addBodyLine("return bucketUpperBound(i);");
+		method.addBodyLine("}");
+		method.addBodyLine("}");
+		method.addBodyLine("return bucketUpperBound(buckets.length - 1);");
+		innerClass.addMethod(method);
+
+		method = new Method();
+		method.addAnnotation("@Override");
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(stringType);
+		method.setName("toString");
+		method.addBodyLine("return \"count=\" + count + \", errors=\" + errors + \", rows=\" + rows");
+		method.addBodyLine("    + \", meanMicros=\" + getMeanMicros() + \", p50Micros=\" + getPercentileMicros(50.0d)");
+		method.addBodyLine("    + \", p99Micros=\" + getPercentileMicros(99.0d) + \", maxMicros=\" + maxNanos / 1000L;");
+		innerClass.addMethod(method);
+		return innerClass;
+	}
+
+	private void addSnapshotField(InnerClass innerClass, FullyQualifiedJavaType type, String name)
+	{
+		Field field = new Field();
+		field.setVisibility(JavaVisibility.PRIVATE);
+		field.setFinal(true);
+		field.setType(type);
+		field.setName(name);
+		innerClass.addField(field);
+	}
+
+	private void addConstant(TopLevelClass topLevelClass, JavaVisibility visibility, String name,
+		String value)
+	{
+		Field field = new Field();
+		field.setVisibility(visibility);
+		field.setStatic(true);
+		field.setFinal(true);
+		field.setType(FullyQualifiedJavaType.getIntInstance());
+		field.setName(name);
+		field.setInitializationString(value);
+		topLevelClass.addField(field);
+	}
+}
@@ -0,0 +1,219 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.Interface;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.Parameter;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+import org.mybatis.generator.api.dom.xml.Attribute;
+import org.mybatis.generator.api.dom.xml.Document;
+import org.mybatis.generator.api.dom.xml.Element;
+import org.mybatis.generator.api.dom.xml.TextElement;
+import org.mybatis.generator.api.dom.xml.XmlElement;
+import org.mybatis.generator.logging.Log;
+import org.mybatis.generator.logging.LogFactory;
+
+/**
+ * This plugin adds streaming variants of selectByExample (and selectByExampleWithBLOBs) to the
+ * mapper so that a large result can be processed without loading it into a List.
+ * <ul>
+ * <li><code>void selectByExampleWithHandler(example, ResultHandler)</code></li>
+ * <li><code>Cursor selectByExampleCursor(example)</code> (MyBatis 3.4.0+, the session must be
+ * open while iterating)</li>
+ * </ul>
+ * The statements are FORWARD_ONLY, do not use the second level cache and have the fetch size
+ * specified by <code>fetchSize</code> property (1000 by default) or
+ * <code>streamingFetchSize</code> table property (both must be positive; an invalid table
+ * property is reported as a warning and the plugin's fetch size is used).<br>
+ * When <code>mysqlStreaming</code> property is true, the fetch size is set to
+ * Integer.MIN_VALUE, which makes MySQL Connector/J stream the rows one by one.<br>
+ * Note that PostgreSQL JDBC driver honors the fetch size only when auto-commit is off.
+ */
+public class StreamingSelectPlugin extends PluginAdapter
+{
+	private static final Log log = LogFactory.getLog(StreamingSelectPlugin.class);
+
+	private static final String WITH_HANDLER = "WithHandler";
+
+	private static final String CURSOR = "Cursor";
+
+	private int fetchSize;
+
+	public boolean validate(List<String> warnings)
+	{
+		if ("true".equalsIgnoreCase(properties.getProperty("mysqlStreaming", "false").trim()))
+		{
+			fetchSize = Integer.MIN_VALUE;
+			return true;
+		}
+		fetchSize = PluginSupport.getPositiveIntProperty(properties, "fetchSize", 1000,
+			"StreamingSelectPlugin", warnings);
+		return fetchSize > 0;
+	}
+
+	@Override
+	public boolean sqlMapDocumentGenerated(Document document, IntrospectedTable introspectedTable)
+	{
+		String fetchSize = getFetchSize(introspectedTable);
+		List<Element> elements = document.getRootElement().getElements();
+		for (int i = 0; i < elements.size(); i++)
+		{
+			Element elem = elements.get(i);
+			if (!(elem instanceof XmlElement))
+				continue;
+			XmlElement original = (XmlElement)elem;
+			String id = getAttribute(original, "id");
+			if (!introspectedTable.getSelectByExampleStatementId().equals(id)
+				&& !introspectedTable.getSelectByExampleWithBLOBsStatementId().equals(id))
+				continue;
+
+			elements.add(++i, createStreamingSelect(original, id + WITH_HANDLER, fetchSize));
+			elements.add(++i, createStreamingSelect(original, id + CURSOR, fetchSize));
+		}
+		return true;
+	}
+
+	@Override
+	public boolean clientGenerated(Interface interfaze, TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		FullyQualifiedJavaType exampleType = new FullyQualifiedJavaType(
+			introspectedTable.getExampleType());
+		if (introspectedTable.getRules().generateSelectByExampleWithoutBLOBs())
+		{
+			FullyQualifiedJavaType recordType = new FullyQualifiedJavaType(
+				introspectedTable.getRules().generateBaseRecordClass() ? introspectedTable
+					.getBaseRecordType() : introspectedTable.getPrimaryKeyType());
+			addMethods(interfaze, introspectedTable, exampleType, recordType,
+				introspectedTable.getSelectByExampleStatementId());
+		}
+		if (introspectedTable.getRules().generateSelectByExampleWithBLOBs())
+		{
+			FullyQualifiedJavaType recordType = new FullyQualifiedJavaType(
+				introspectedTable.getRules().generateRecordWithBLOBsClass() ? introspectedTable
+					.getRecordWithBLOBsType() : introspectedTable.getBaseRecordType());
+			addMethods(interfaze, introspectedTable, exampleType, recordType,
+				introspectedTable.getSelectByExampleWithBLOBsStatementId());
+		}
+		return true;
+	}
+
+	private void addMethods(Interface interfaze, IntrospectedTable introspectedTable,
+		FullyQualifiedJavaType exampleType, FullyQualifiedJavaType recordType, String statementId)
+	{
+		interfaze.addImportedType(exampleType);
+		interfaze.addImportedType(recordType);
+
+		FullyQualifiedJavaType handlerType = new FullyQualifiedJavaType(
+			"org.apache.ibatis.session.ResultHandler");
+		interfaze.addImportedType(handlerType);
+		handlerType = new FullyQualifiedJavaType("org.apache.ibatis.session.ResultHandler<"
+			+ recordType.getShortName() + ">");
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setName(statementId + WITH_HANDLER);
+		method.addParameter(new Parameter(exampleType, "example"));
+		method.addParameter(new Parameter(handlerType, "handler"));
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		interfaze.addMethod(method);
+
+		FullyQualifiedJavaType cursorType = new FullyQualifiedJavaType(
+			"org.apache.ibatis.cursor.Cursor");
+		interfaze.addImportedType(cursorType);
+		cursorType = new FullyQualifiedJavaType("org.apache.ibatis.cursor.Cursor<"
+			+ recordType.getShortName() + ">");
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(cursorType);
+		method.setName(statementId + CURSOR);
+		method.addParameter(new Parameter(exampleType, "example"));
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		interfaze.addMethod(method);
+	}
+
+	private XmlElement createStreamingSelect(XmlElement original, String id, String fetchSize)
+	{
+		XmlElement answer = new XmlElement("select");
+		answer.addAttribute(new Attribute("id", id));
+		for (Attribute attribute : original.getAttributes())
+		{
+			if (!"id".equals(attribute.getName()))
+				answer.addAttribute(attribute);
+		}
+		answer.addAttribute(new Attribute("fetchSize", fetchSize));
+		answer.addAttribute(new Attribute("resultSetType", "FORWARD_ONLY"));
+		answer.addAttribute(new Attribute("useCache", "false"));
+		context.getCommentGenerator().addComment(answer);
+		// skip the comment of the original statement
+		boolean inComment = false;
+		for (Element child : original.getElements())
+		{
+			if (child instanceof TextElement)
+			{
+				String text = child.getFormattedContent(0).trim();
+				if (text.startsWith("<!--"))
+					inComment = true;
+				if (inComment)
+				{
+					inComment = !text.endsWith("-->");
+					continue;
+				}
+			}
+			answer.addElement(child);
+		}
+		return answer;
+	}
+
+	/**
+	 * Returns <code>streamingFetchSize</code> table property if valid, otherwise the fetch size
+	 * of the plugin.
+	 */
+	private String getFetchSize(IntrospectedTable introspectedTable)
+	{
+		List<String> warnings = new ArrayList<String>();
+		int tableFetchSize = PluginSupport.getPositiveIntProperty(introspectedTable
+			.getTableConfiguration()
+			.getProperties(), "streamingFetchSize", fetchSize, "StreamingSelectPlugin", warnings);
+		if (!warnings.isEmpty())
+		{
+			log.warn(warnings.get(0) + " of table " + introspectedTable.getFullyQualifiedTable()
+				+ ", using the default");
+			tableFetchSize = fetchSize;
+		}
+		return String.valueOf(tableFetchSize);
+	}
+
+	private String getAttribute(XmlElement element, String name)
+	{
+		for (Attribute attribute : element.getAttributes())
+		{
+			if (name.equals(attribute.getName()))
+				return attribute.getValue();
+		}
+		return null;
+	}
+}
@@ -16,27 +16,87 @@
 
 package com.github.harawata.mbgplugin;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.mybatis.generator.api.IntrospectedColumn;
 import org.mybatis.generator.api.IntrospectedTable;
 import org.mybatis.generator.api.PluginAdapter;
 import org.mybatis.generator.api.dom.java.Field;
 import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
-import org.mybatis.generator.api.dom.java.InnerClass;
 import org.mybatis.generator.api.dom.java.JavaVisibility;
 import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.Parameter;
 import org.mybatis.generator.api.dom.java.TopLevelClass;
+import org.mybatis.generator.logging.Log;
+import org.mybatis.generator.logging.LogFactory;
 
 /**
- * This plugin adds toString() method to the generated model and example classes.
+ * This plugin adds toString() method to the generated model and example classes.<br>
+ * The string is built by <code>appendTo(StringBuilder)</code> method which is also added, so
+ * that you can log a collection of records into a single buffer.<br>
+ * <br>
+ * Long values can be truncated and sensitive values can be redacted.
+ * <ul>
+ * <li><code>blobMaxLength</code> (plugin property) : the max number of characters printed for
+ * BLOB columns (CLOB, LONGVARCHAR, etc.). Unlimited by default.</li>
+ * <li><code>redactColumns</code> (plugin property) : comma-separated column names (or
+ * <code>TABLE.COLUMN</code>) whose values are printed as <code>***</code>.</li>
+ * <li><code>toStringMaxLength</code> (columnOverride property) : the max number of characters
+ * printed for the column.</li>
+ * <li><code>toStringRedact</code> (columnOverride property) : if <code>true</code>, the value
+ * of the column is printed as <code>***</code>.</li>
+ * </ul>
+ * Array values (e.g. <code>byte[]</code>) are printed as its type and length.
  * 
  * @author Iwao AVE!
  */
 public class ToStringPlugin extends PluginAdapter
 {
+	/** Estimated length of a value used to presize the buffer. */
+	private static final int DEFAULT_VALUE_LENGTH = 16;
+
+	private static final int MAX_ESTIMATED_VALUE_LENGTH = 64;
+
+	private static final Log log = LogFactory.getLog(ToStringPlugin.class);
+
+	private int blobMaxLength;
+
+	private Set<String> redactColumns;
+
+	private final Set<String> invalidMaxLengthColumns = new HashSet<String>();
 
 	public boolean validate(List<String> warnings)
 	{
+		blobMaxLength = -1;
+		String maxLength = properties.getProperty("blobMaxLength");
+		if (maxLength != null && maxLength.trim().length() > 0)
+		{
+			try
+			{
+				blobMaxLength = Integer.parseInt(maxLength.trim());
+			}
+			catch (NumberFormatException e)
+			{
+				warnings.add("ToStringPlugin: invalid blobMaxLength '" + maxLength + "'");
+				return false;
+			}
+		}
+
+		redactColumns = new HashSet<String>();
+		String columns = properties.getProperty("redactColumns");
+		if (columns != null)
+		{
+			for (String column : columns.split(","))
+			{
+				column = column.trim();
+				if (column.length() > 0)
+					redactColumns.add(column.toUpperCase());
+			}
+		}
 		return true;
 	}
 
@@ -44,7 +104,10 @@ public class ToStringPlugin extends PluginAdapter
 	public boolean modelBaseRecordClassGenerated(TopLevelClass topLevelClass,
 		IntrospectedTable introspectedTable)
 	{
-		generateToString(introspectedTable, topLevelClass);
+		List<IntrospectedColumn> columns = introspectedTable.getRules()
+			.generateRecordWithBLOBsClass() ? introspectedTable.getNonBLOBColumns()
+			: introspectedTable.getAllColumns();
+		generateToString(introspectedTable, topLevelClass, columns);
 		return true;
 	}
 
@@ -52,7 +115,7 @@ public class ToStringPlugin extends PluginAdapter
 	public boolean modelExampleClassGenerated(TopLevelClass topLevelClass,
 		IntrospectedTable introspectedTable)
 	{
-		generateToString(introspectedTable, topLevelClass);
+		generateToString(introspectedTable, topLevelClass, null);
 		return true;
 	}
 
@@ -60,12 +123,39 @@ public class ToStringPlugin extends PluginAdapter
 	public boolean modelPrimaryKeyClassGenerated(TopLevelClass topLevelClass,
 		IntrospectedTable introspectedTable)
 	{
-		generateToString(introspectedTable, topLevelClass);
+		generateToString(introspectedTable, topLevelClass,
+			introspectedTable.getPrimaryKeyColumns());
 		return true;
 	}
 
-	private void generateToString(IntrospectedTable introspectedTable, InnerClass innerClass)
+	@Override
+	public boolean modelRecordWithBLOBsClassGenerated(TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
 	{
+		generateToString(introspectedTable, topLevelClass, introspectedTable.getAllColumns());
+		return true;
+	}
+
+	/**
+	 * @param columns all the columns held by the class including the ones declared in the
+	 *          superclasses, or <code>null</code> if the class is not a model class.
+	 */
+	private void generateToString(IntrospectedTable introspectedTable,
+		TopLevelClass topLevelClass, List<IntrospectedColumn> columns)
+	{
+		Map<String, IntrospectedColumn> columnMap = new HashMap<String, IntrospectedColumn>();
+		if (columns != null)
+		{
+			for (IntrospectedColumn column : columns)
+			{
+				columnMap.put(column.getJavaProperty(), column);
+			}
+		}
+
+		boolean generatedSuperClass = hasGeneratedSuperClass(introspectedTable, topLevelClass);
+		FullyQualifiedJavaType stringBuilder = new FullyQualifiedJavaType(
+			"java.lang.StringBuilder");
+
 		Method method = new Method();
 		method.setVisibility(JavaVisibility.PUBLIC);
 		method.setReturnType(FullyQualifiedJavaType.getStringInstance());
@@ -74,37 +164,208 @@ public class ToStringPlugin extends PluginAdapter
 		{
 			method.addAnnotation("@Override");
 		}
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		method.addBodyLine("return appendTo(new StringBuilder("
+			+ estimateCapacity(introspectedTable, topLevelClass, columns) + ")).toString();");
+		topLevelClass.addMethod(method);
 
-		if (innerClass instanceof TopLevelClass)
+		if (!generatedSuperClass)
 		{
+			method = new Method();
+			method.setVisibility(JavaVisibility.PUBLIC);
+			method.setReturnType(stringBuilder);
+			method.setName("appendTo");
+			method.addParameter(new Parameter(stringBuilder, "sb"));
 			context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+			method.addBodyLine("sb.append(getClass().getName());");
+			method.addBodyLine("sb.append('@');");
+			method.addBodyLine("sb.append(Integer.toHexString(System.identityHashCode(this)));");
+			method.addBodyLine("sb.append('[');");
+			method.addBodyLine("appendFieldsTo(sb);");
+			method.addBodyLine("sb.append(']');");
+			method.addBodyLine("return sb;");
+			topLevelClass.addMethod(method);
+		}
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PROTECTED);
+		method.setName("appendFieldsTo");
+		method.addParameter(new Parameter(stringBuilder, "sb"));
+		if (generatedSuperClass && introspectedTable.isJava5Targeted())
+		{
+			method.addAnnotation("@Override");
 		}
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
 
-		method.addBodyLine("StringBuilder sb = new StringBuilder();");
-		method.addBodyLine("sb.append(getClass().getName());");
-		method.addBodyLine("sb.append(\"@\");");
-		method.addBodyLine("sb.append(Integer.toHexString(System.identityHashCode(this)));");
-		method.addBodyLine("sb.append(\"[\");");
-		method.addBodyLine("sb.append(super.toString());");
+		boolean first = true;
+		if (generatedSuperClass)
+		{
+			method.addBodyLine("super.appendFieldsTo(sb);");
+			first = false;
+		}
+		else if (topLevelClass.getSuperClass() != null)
+		{
+			method.addBodyLine("sb.append(super.toString());");
+			first = false;
+		}
 
 		StringBuilder sb = new StringBuilder();
-		for (Field field : innerClass.getFields())
+		for (Field field : topLevelClass.getFields())
 		{
+			if (isTransient(field) || field.isStatic())
+				continue;
+
 			String property = field.getName();
+			IntrospectedColumn column = columnMap.get(property);
+
+			sb.setLength(0);
+			sb.append("sb.append(\"");
+			if (!first)
+				sb.append(',');
+			sb.append(property).append("=\");");
+			method.addBodyLine(sb.toString());
+			first = false;
+
 			sb.setLength(0);
-			sb.append("sb.append(\",")
-				.append(property)
-				.append("=\")")
-				.append(".append(")
-				.append(property)
-				.append(");");
+			int maxLength;
+			if (column != null && isRedacted(introspectedTable, column))
+			{
+				if (field.getType().isPrimitive())
+					sb.append("sb.append(\"***\");");
+				else
+					sb.append("sb.append(").append(property).append(
+						" == null ? \"null\" : \"***\");");
+			}
+			else if (isArray(field.getType()))
+			{
+				String typeName = field.getType().getShortName();
+				sb.append("if (").append(property).append(" == null) { sb.append(\"null\"); } ");
+				sb.append("else { sb.append(\"")
+					.append(typeName.substring(0, typeName.length() - 1))
+					.append("\").append(")
+					.append(property)
+					.append(".length).append(']'); }");
+			}
+			else if (column != null && column.isStringColumn()
+				&& (maxLength = getMaxLength(column)) >= 0)
+			{
+				sb.append("if (").append(property).append(" != null && ");
+				sb.append(property).append(".length() > ").append(maxLength).append(") { ");
+				sb.append("sb.append(").append(property).append(", 0, ").append(maxLength);
+				sb.append(").append(\"...(\").append(").append(property);
+				sb.append(".length()).append(\" chars)\"); } ");
+				sb.append("else { sb.append(").append(property).append("); }");
+			}
+			else
+			{
+				sb.append("sb.append(").append(property).append(");");
+			}
 			method.addBodyLine(sb.toString());
 		}
 
-		method.addBodyLine("sb.append(\"]\");");
-		method.addBodyLine("return sb.toString();");
+		topLevelClass.addMethod(method);
+	}
+
+	/**
+	 * Returns <code>true</code> if the superclass is a model class of the same table which has
+	 * appendFieldsTo() method.
+	 */
+	private boolean hasGeneratedSuperClass(IntrospectedTable introspectedTable,
+		TopLevelClass topLevelClass)
+	{
+		FullyQualifiedJavaType superClass = topLevelClass.getSuperClass();
+		if (superClass == null)
+			return false;
+		String superClassName = superClass.getFullyQualifiedName();
+		return superClassName.equals(introspectedTable.getPrimaryKeyType())
+			|| superClassName.equals(introspectedTable.getBaseRecordType());
+	}
+
+	private int estimateCapacity(IntrospectedTable introspectedTable,
+		TopLevelClass topLevelClass, List<IntrospectedColumn> columns)
+	{
+		int capacity = topLevelClass.getType().getFullyQualifiedName().length() + 12;
+		if (columns == null)
+		{
+			for (Field field : topLevelClass.getFields())
+			{
+				capacity += field.getName().length() + 2 + DEFAULT_VALUE_LENGTH;
+			}
+			return capacity;
+		}
+
+		for (IntrospectedColumn column : columns)
+		{
+			capacity += column.getJavaProperty().length() + 2;
+			int maxLength;
+			if (isRedacted(introspectedTable, column))
+				capacity += 4;
+			else if (isArray(column.getFullyQualifiedJavaType()))
+				capacity += 12;
+			else if (column.isStringColumn())
+			{
+				int length = column.getLength() > 0 ? column.getLength()
+					: MAX_ESTIMATED_VALUE_LENGTH;
+				if ((maxLength = getMaxLength(column)) >= 0)
+					length = Math.min(length, maxLength + 16);
+				capacity += Math.min(length, MAX_ESTIMATED_VALUE_LENGTH);
+			}
+			else if (column.isJDBCDateColumn() || column.isJDBCTimeColumn()
+				|| "java.util.Date".equals(column.getFullyQualifiedJavaType()
+					.getFullyQualifiedName()))
+				capacity += 28;
+			else
+				capacity += DEFAULT_VALUE_LENGTH;
+		}
+		return capacity;
+	}
+
+	private boolean isRedacted(IntrospectedTable introspectedTable, IntrospectedColumn column)
+	{
+		if ("true".equalsIgnoreCase(column.getProperties().getProperty("toStringRedact")))
+			return true;
+		String columnName = column.getActualColumnName().toUpperCase();
+		return redactColumns.contains(columnName)
+			|| redactColumns.contains(introspectedTable.getFullyQualifiedTable()
+				.getIntrospectedTableName()
+				.toUpperCase()
+				+ "." + columnName);
+	}
+
+	/**
+	 * Returns the max number of characters printed for the column or -1 if unlimited.<br>
+	 * An invalid <code>toStringMaxLength</code> is reported once and the default is used.
+	 */
+	private int getMaxLength(IntrospectedColumn column)
+	{
+		String maxLength = column.getProperties().getProperty("toStringMaxLength");
+		if (maxLength != null && maxLength.trim().length() > 0)
+		{
+			try
+			{
+				return Integer.parseInt(maxLength.trim());
+			}
+			catch (NumberFormatException e)
+			{
+				String columnName = column.getIntrospectedTable().getFullyQualifiedTable()
+					.getIntrospectedTableName()
+					+ "." + column.getActualColumnName();
+				if (invalidMaxLengthColumns.add(columnName))
+					log.warn("ToStringPlugin: invalid toStringMaxLength '" + maxLength
+						+ "' of column " + columnName + ", using the default");
+			}
+		}
+		return column.isBLOBColumn() ? blobMaxLength : -1;
+	}
+
+	private boolean isArray(FullyQualifiedJavaType type)
+	{
+		return type.getFullyQualifiedName().endsWith("[]");
+	}
 
-		innerClass.addMethod(method);
+	private boolean isTransient(Field field)
+	{
+		return field.getType().getShortName().startsWith("transient ");
 	}
 
 }
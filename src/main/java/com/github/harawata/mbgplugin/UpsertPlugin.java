@@ -0,0 +1,434 @@
+/*-
+ *  Copyright 2011 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.github.harawata.mbgplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mybatis.generator.api.GeneratedJavaFile;
+import org.mybatis.generator.api.IntrospectedColumn;
+import org.mybatis.generator.api.IntrospectedTable;
+import org.mybatis.generator.api.PluginAdapter;
+import org.mybatis.generator.api.dom.java.FullyQualifiedJavaType;
+import org.mybatis.generator.api.dom.java.Interface;
+import org.mybatis.generator.api.dom.java.JavaVisibility;
+import org.mybatis.generator.api.dom.java.Method;
+import org.mybatis.generator.api.dom.java.Parameter;
+import org.mybatis.generator.api.dom.java.TopLevelClass;
+import org.mybatis.generator.api.dom.xml.Attribute;
+import org.mybatis.generator.api.dom.xml.Document;
+import org.mybatis.generator.api.dom.xml.Element;
+import org.mybatis.generator.api.dom.xml.TextElement;
+import org.mybatis.generator.api.dom.xml.XmlElement;
+import org.mybatis.generator.codegen.mybatis3.MyBatis3FormattingUtilities;
+
+/**
+ * This plugin adds upsert(record), upsertSelective(record) and upsertBatch(List) to the mapper,
+ * which insert the record(s) or update the existing row(s) with a single statement.<br>
+ * The statement depends on the <code>dialect</code> property.
+ * <ul>
+ * <li><code>mysql</code> (default) : insert ... on duplicate key update</li>
+ * <li><code>postgresql</code> : insert ... on conflict (keys) do update</li>
+ * <li><code>h2</code> : merge into ... key (keys)</li>
+ * </ul>
+ * The conflict target is the primary key by default. It can be changed by
+ * <code>upsertKeyColumns</code> table property (comma-separated column names of a unique key).
+ * Tables without the key columns are skipped. Note that MySQL checks all the unique keys
+ * regardless of the conflict target.<br>
+ * upsertSelective inserts/updates the non-null properties only (the key columns are always
+ * included).<br>
+ * XxxMapperBatchUpsert class splits a list of any size into chunks of at most
+ * <code>batchMaxRows</code> rows (1000 by default) and <code>batchMaxParameters</code> bind
+ * parameters (32767 by default). With PostgreSQL, a chunk must not contain the same key twice.
+ */
+public class UpsertPlugin extends PluginAdapter
+{
+	private static final String UPSERT = "upsert";
+
+	private static final String UPSERT_SELECTIVE = "upsertSelective";
+
+	private static final String UPSERT_BATCH = "upsertBatch";
+
+	private enum Dialect
+	{
+		MYSQL, POSTGRESQL, H2
+	}
+
+	private Dialect dialect;
+
+	private int batchMaxRows;
+
+	private int batchMaxParameters;
+
+	public boolean validate(List<String> warnings)
+	{
+		String dialectName = properties.getProperty("dialect", "mysql").trim().toUpperCase();
+		try
+		{
+			dialect = Dialect.valueOf(dialectName);
+		}
+		catch (IllegalArgumentException e)
+		{
+			warnings.add("UpsertPlugin: unsupported dialect '" + dialectName + "'");
+			return false;
+		}
+		batchMaxRows = PluginSupport.getPositiveIntProperty(properties, "batchMaxRows", 1000,
+			"UpsertPlugin", warnings);
+		batchMaxParameters = PluginSupport.getPositiveIntProperty(properties,
+			"batchMaxParameters", 32767, "UpsertPlugin", warnings);
+		return batchMaxRows > 0 && batchMaxParameters > 0;
+	}
+
+	@Override
+	public boolean sqlMapDocumentGenerated(Document document, IntrospectedTable introspectedTable)
+	{
+		if (!isUpsertEnabled(introspectedTable))
+			return true;
+
+		List<IntrospectedColumn> keyColumns = getKeyColumns(introspectedTable);
+		List<IntrospectedColumn> columns = introspectedTable.getAllColumns();
+		String recordType = getRecordType(introspectedTable).getFullyQualifiedName();
+
+		// upsert
+		XmlElement upsert = new XmlElement("insert");
+		upsert.addAttribute(new Attribute("id", UPSERT));
+		upsert.addAttribute(new Attribute("parameterType", recordType));
+		context.getCommentGenerator().addComment(upsert);
+		upsert.addElement(new TextElement(getInsertClause(introspectedTable, keyColumns, columns)));
+		upsert.addElement(new TextElement("values " + getValuesClause(columns, null)));
+		addConflictClause(upsert, keyColumns, columns);
+
+		// upsertSelective
+		XmlElement upsertSelective = new XmlElement("insert");
+		upsertSelective.addAttribute(new Attribute("id", UPSERT_SELECTIVE));
+		upsertSelective.addAttribute(new Attribute("parameterType", recordType));
+		context.getCommentGenerator().addComment(upsertSelective);
+		addSelectiveElements(upsertSelective, introspectedTable, keyColumns, columns);
+
+		// upsertBatch
+		XmlElement upsertBatch = new XmlElement("insert");
+		upsertBatch.addAttribute(new Attribute("id", UPSERT_BATCH));
+		upsertBatch.addAttribute(new Attribute("parameterType", "map"));
+		context.getCommentGenerator().addComment(upsertBatch);
+		upsertBatch.addElement(new TextElement(getInsertClause(introspectedTable, keyColumns,
+			columns)));
+		upsertBatch.addElement(new TextElement("values"));
+		XmlElement foreach = new XmlElement("foreach");
+		foreach.addAttribute(new Attribute("collection", "records"));
+		foreach.addAttribute(new Attribute("item", "record"));
+		foreach.addAttribute(new Attribute("separator", ","));
+		foreach.addElement(new TextElement(getValuesClause(columns, "record.")));
+		upsertBatch.addElement(foreach);
+		addConflictClause(upsertBatch, keyColumns, columns);
+
+		// put them after the insert statements
+		XmlElement root = document.getRootElement();
+		int index = root.getElements().size();
+		for (int i = 0; i < root.getElements().size(); i++)
+		{
+			Element elem = root.getElements().get(i);
+			if (!(elem instanceof XmlElement))
+				continue;
+			String name = ((XmlElement)elem).getName();
+			if ("insert".equals(name))
+				index = i + 1;
+		}
+		root.addElement(index++, upsert);
+		root.addElement(index++, upsertSelective);
+		root.addElement(index, upsertBatch);
+		return true;
+	}
+
+	@Override
+	public boolean clientGenerated(Interface interfaze, TopLevelClass topLevelClass,
+		IntrospectedTable introspectedTable)
+	{
+		if (!isUpsertEnabled(introspectedTable))
+			return true;
+
+		FullyQualifiedJavaType recordType = getRecordType(introspectedTable);
+		interfaze.addImportedType(recordType);
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName(UPSERT);
+		method.addParameter(new Parameter(recordType, "record"));
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		interfaze.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName(UPSERT_SELECTIVE);
+		method.addParameter(new Parameter(recordType, "record"));
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		interfaze.addMethod(method);
+
+		FullyQualifiedJavaType listType = FullyQualifiedJavaType.getNewListInstance();
+		listType.addTypeArgument(recordType);
+		interfaze.addImportedType(FullyQualifiedJavaType.getNewListInstance());
+		interfaze.addImportedType(new FullyQualifiedJavaType("org.apache.ibatis.annotations.Param"));
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName(UPSERT_BATCH);
+		method.addParameter(new Parameter(listType, "records", "@Param(\"records\")"));
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		interfaze.addMethod(method);
+		return true;
+	}
+
+	@Override
+	public List<GeneratedJavaFile> contextGenerateAdditionalJavaFiles(
+		IntrospectedTable introspectedTable)
+	{
+		List<GeneratedJavaFile> answer = new ArrayList<GeneratedJavaFile>();
+		if (!isUpsertEnabled(introspectedTable))
+			return answer;
+
+		FullyQualifiedJavaType mapperType = new FullyQualifiedJavaType(
+			introspectedTable.getMyBatis3JavaMapperType());
+		FullyQualifiedJavaType recordType = getRecordType(introspectedTable);
+		FullyQualifiedJavaType listType = FullyQualifiedJavaType.getNewListInstance();
+		listType.addTypeArgument(recordType);
+
+		TopLevelClass topLevelClass = PluginSupport.createMapperHelperClass(context,
+			introspectedTable, "BatchUpsert");
+		topLevelClass.addImportedType(recordType);
+		topLevelClass.addImportedType(FullyQualifiedJavaType.getNewListInstance());
+
+		int columnCount = introspectedTable.getAllColumns().size();
+		int chunkSize = Math.max(1, Math.min(batchMaxRows, batchMaxParameters / columnCount));
+
+		Method method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setStatic(true);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName(UPSERT_BATCH);
+		method.addParameter(new Parameter(mapperType, "mapper"));
+		method.addParameter(new Parameter(listType, "records"));
+		method.addBodyLine("return " + UPSERT_BATCH + "(mapper, records, " + chunkSize + ");");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		method = new Method();
+		method.setVisibility(JavaVisibility.PUBLIC);
+		method.setStatic(true);
+		method.setReturnType(FullyQualifiedJavaType.getIntInstance());
+		method.setName(UPSERT_BATCH);
+		method.addParameter(new Parameter(mapperType, "mapper"));
+		method.addParameter(new Parameter(listType, "records"));
+		method.addParameter(new Parameter(FullyQualifiedJavaType.getIntInstance(), "chunkSize"));
+		method.addBodyLine("if (chunkSize <= 0 || chunkSize > " + chunkSize + ") {");
+		method.addBodyLine("throw new IllegalArgumentException(\"chunkSize must be between 1 and "
+			+ chunkSize + "\");");
+		method.addBodyLine("}");
+		method.addBodyLine("int total = 0;");
+		method.addBodyLine("int size = records.size();");
+		method.addBodyLine("for (int from = 0; from < size; from += chunkSize) {");
+		method.addBodyLine("total += mapper." + UPSERT_BATCH
+			+ "(records.subList(from, Math.min(from + chunkSize, size)));");
+		method.addBodyLine("}");
+		method.addBodyLine("return total;");
+		context.getCommentGenerator().addGeneralMethodComment(method, introspectedTable);
+		topLevelClass.addMethod(method);
+
+		answer.add(PluginSupport.createMapperHelperFile(context, topLevelClass));
+		return answer;
+	}
+
+	/**
+	 * <code>insert into TBL (C1, C2)</code> or <code>merge into TBL (C1, C2) key (C1)</code>
+	 */
+	private String getInsertClause(IntrospectedTable introspectedTable,
+		List<IntrospectedColumn> keyColumns, List<IntrospectedColumn> columns)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(dialect == Dialect.H2 ? "merge into " : "insert into ");
+		sb.append(introspectedTable.getFullyQualifiedTableNameAtRuntime());
+		sb.append(" (").append(getColumnList(columns)).append(')');
+		if (dialect == Dialect.H2)
+			sb.append(" key (").append(getColumnList(keyColumns)).append(')');
+		return sb.toString();
+	}
+
+	private String getValuesClause(List<IntrospectedColumn> columns, String prefix)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append('(');
+		for (int i = 0; i < columns.size(); i++)
+		{
+			if (i > 0)
+				sb.append(", ");
+			sb.append(MyBatis3FormattingUtilities.getParameterClause(columns.get(i), prefix));
+		}
+		sb.append(')');
+		return sb.toString();
+	}
+
+	private void addConflictClause(XmlElement element, List<IntrospectedColumn> keyColumns,
+		List<IntrospectedColumn> columns)
+	{
+		if (dialect == Dialect.H2)
+			return;
+
+		StringBuilder sb = new StringBuilder();
+		for (IntrospectedColumn column : columns)
+		{
+			if (keyColumns.contains(column))
+				continue;
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append(getUpdateAssignment(column));
+		}
+
+		if (dialect == Dialect.MYSQL)
+		{
+			// 'update' clause cannot be empty
+			if (sb.length() == 0)
+				sb.append(getUpdateAssignment(keyColumns.get(0)));
+			element.addElement(new TextElement("on duplicate key update " + sb));
+		}
+		else if (sb.length() == 0)
+		{
+			element.addElement(new TextElement("on conflict (" + getColumnList(keyColumns)
+				+ ") do nothing"));
+		}
+		else
+		{
+			element.addElement(new TextElement("on conflict (" + getColumnList(keyColumns)
+				+ ") do update set " + sb));
+		}
+	}
+
+	private void addSelectiveElements(XmlElement element, IntrospectedTable introspectedTable,
+		List<IntrospectedColumn> keyColumns, List<IntrospectedColumn> columns)
+	{
+		element.addElement(new TextElement((dialect == Dialect.H2 ? "merge into " : "insert into ")
+			+ introspectedTable.getFullyQualifiedTableNameAtRuntime()));
+
+		XmlElement columnsTrim = new XmlElement("trim");
+		columnsTrim.addAttribute(new Attribute("prefix", "("));
+		columnsTrim.addAttribute(new Attribute("suffix", ")"));
+		columnsTrim.addAttribute(new Attribute("suffixOverrides", ","));
+		XmlElement valuesTrim = new XmlElement("trim");
+		valuesTrim.addAttribute(new Attribute("prefix", "values ("));
+		valuesTrim.addAttribute(new Attribute("suffix", ")"));
+		valuesTrim.addAttribute(new Attribute("suffixOverrides", ","));
+		XmlElement updateTrim = new XmlElement("trim");
+		if (dialect == Dialect.MYSQL)
+			updateTrim.addAttribute(new Attribute("prefix", "on duplicate key update "));
+		else
+			updateTrim.addAttribute(new Attribute("prefix", "on conflict ("
+				+ getColumnList(keyColumns) + ") do update set "));
+		updateTrim.addAttribute(new Attribute("suffixOverrides", ","));
+		// keeps the update clause non-empty
+		updateTrim.addElement(new TextElement(getUpdateAssignment(keyColumns.get(0)) + ","));
+
+		for (IntrospectedColumn column : columns)
+		{
+			String columnName = MyBatis3FormattingUtilities.getEscapedColumnName(column);
+			String parameter = MyBatis3FormattingUtilities.getParameterClause(column);
+			boolean key = keyColumns.contains(column);
+			if (key || column.getFullyQualifiedJavaType().isPrimitive())
+			{
+				columnsTrim.addElement(new TextElement(columnName + ","));
+				valuesTrim.addElement(new TextElement(parameter + ","));
+				if (!key)
+					updateTrim.addElement(new TextElement(getUpdateAssignment(column) + ","));
+				continue;
+			}
+			String test = column.getJavaProperty() + " != null";
+			columnsTrim.addElement(createIfElement(test, columnName + ","));
+			valuesTrim.addElement(createIfElement(test, parameter + ","));
+			updateTrim.addElement(createIfElement(test, getUpdateAssignment(column) + ","));
+		}
+
+		element.addElement(columnsTrim);
+		if (dialect == Dialect.H2)
+			element.addElement(new TextElement("key (" + getColumnList(keyColumns) + ")"));
+		element.addElement(valuesTrim);
+		if (dialect != Dialect.H2)
+			element.addElement(updateTrim);
+	}
+
+	private XmlElement createIfElement(String test, String content)
+	{
+		XmlElement ifElement = new XmlElement("if");
+		ifElement.addAttribute(new Attribute("test", test));
+		ifElement.addElement(new TextElement(content));
+		return ifElement;
+	}
+
+	private String getUpdateAssignment(IntrospectedColumn column)
+	{
+		String columnName = MyBatis3FormattingUtilities.getEscapedColumnName(column);
+		if (dialect == Dialect.MYSQL)
+			return columnName + " = values(" + columnName + ")";
+		return columnName + " = excluded." + columnName;
+	}
+
+	private String getColumnList(List<IntrospectedColumn> columns)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (IntrospectedColumn column : columns)
+		{
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append(MyBatis3FormattingUtilities.getEscapedColumnName(column));
+		}
+		return sb.toString();
+	}
+
+	private boolean isUpsertEnabled(IntrospectedTable introspectedTable)
+	{
+		return introspectedTable.getRules().generateInsert()
+			&& PluginSupport.hasMapperInterface(context, introspectedTable)
+			&& !getKeyColumns(introspectedTable).isEmpty();
+	}
+
+	private List<IntrospectedColumn> getKeyColumns(IntrospectedTable introspectedTable)
+	{
+		String keyColumns = introspectedTable.getTableConfigurationProperty("upsertKeyColumns");
+		if (keyColumns == null || keyColumns.trim().length() == 0)
+			return introspectedTable.getPrimaryKeyColumns();
+
+		List<IntrospectedColumn> columns = new ArrayList<IntrospectedColumn>();
+		for (String columnName : keyColumns.split(","))
+		{
+			IntrospectedColumn column = introspectedTable.getColumn(columnName.trim());
+			if (column == null)
+				return new ArrayList<IntrospectedColumn>();
+			columns.add(column);
+		}
+		return columns;
+	}
+
+	/**
+	 * The record type that insert takes, i.e. the one with all the columns.
+	 */
+	private FullyQualifiedJavaType getRecordType(IntrospectedTable introspectedTable)
+	{
+		if (introspectedTable.getRules().generateRecordWithBLOBsClass())
+			return new FullyQualifiedJavaType(introspectedTable.getRecordWithBLOBsType());
+		if (introspectedTable.getRules().generateBaseRecordClass())
+			return new FullyQualifiedJavaType(introspectedTable.getBaseRecordType());
+		return new FullyQualifiedJavaType(introspectedTable.getPrimaryKeyType());
+	}
+}